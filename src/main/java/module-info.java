@@ -10,6 +10,7 @@ module com.mth.protractorfx {
     requires org.kordamp.ikonli.fontawesome;
     requires kotlin.stdlib;
     requires java.logging;
+    requires jdk.management;
 
     opens org.mth.protractorfx to javafx.fxml;
 
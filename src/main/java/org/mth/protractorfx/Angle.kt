@@ -1,26 +1,31 @@
 package org.mth.protractorfx
 
-import javafx.geometry.Point2D
+import org.mth.protractorfx.geometry.Geometry
 import org.mth.protractorfx.tool.MeasureUnit
 import org.mth.protractorfx.tool.MeasureUnit.DECIMAL_DEGREE
-import org.mth.protractorfx.tool.MeasureUnit.RADIANS
 
 data class Angle(
     val vertex: Dot,
     val extreme1: Dot,
     val extreme2: Dot,
 ) {
-    val L1 get() = extreme1.getCenter() sub vertex.getCenter()
+    /**
+     * Components of the first side of the angle, from the [vertex] to the [extreme1]
+     */
+    val l1x get() = extreme1.centerX - vertex.centerX
+    val l1y get() = extreme1.centerY - vertex.centerY
 
-    val L2 get() = extreme2.getCenter() sub vertex.getCenter()
+    /**
+     * Components of the second side of the angle, from the [vertex] to the [extreme2]
+     */
+    val l2x get() = extreme2.centerX - vertex.centerX
+    val l2y get() = extreme2.centerY - vertex.centerY
 
-    val C: Point2D get() = vertex.getCenter()
+    /**
+     * Write in [out] the versor along the bisector of the angle.
+     */
+    fun bisector(out: DoubleArray) = Geometry.bisector(l1x, l1y, l2x, l2y, out)
 
-    fun bisector(): Point2D {
-        val alpha = -measure(RADIANS) / 2
-        return L1.normalize().rotate(alpha)
-    }
-
-    fun measure(unit: MeasureUnit = DECIMAL_DEGREE) = angleBetween(L2, L1, unit)
+    fun measure(unit: MeasureUnit = DECIMAL_DEGREE) = Geometry.angleBetween(l2x, l2y, l1x, l1y, unit)
 
 }
@@ -2,6 +2,7 @@ package org.mth.protractorfx
 
 import javafx.geometry.Insets
 import javafx.geometry.Point2D
+import javafx.scene.Node
 import javafx.scene.control.Label
 import javafx.scene.input.MouseButton
 import javafx.scene.layout.*
@@ -11,7 +12,15 @@ import javafx.scene.shape.*
 import javafx.scene.text.Font
 import javafx.scene.text.Text
 import javafx.scene.transform.Translate
+import org.mth.protractorfx.geometry.Geometry
+import org.mth.protractorfx.geometry.Geometry.X
+import org.mth.protractorfx.geometry.Geometry.Y
 import org.mth.protractorfx.log.LogFactory
+import org.mth.protractorfx.project.Journal
+import org.mth.protractorfx.render.CanvasRenderer
+import org.mth.protractorfx.render.LevelOfDetail
+import org.mth.protractorfx.render.LevelOfDetail.Level
+import org.mth.protractorfx.render.RenderMode
 import org.mth.protractorfx.tool.MeasureUnit.*
 import java.util.logging.Logger
 import kotlin.math.*
@@ -156,7 +165,7 @@ data class AngleDecorator(val angle: Angle) {
          * The vector representing the displacement of the measure label from the center of the [arc].
          * T = aB+W
          */
-        var T = Point2D(.0, .0)
+        val T = Geometry.vector()
 
         /**
          * The magnitude of the bisector vector.
@@ -172,13 +181,13 @@ data class AngleDecorator(val angle: Angle) {
         /**
          * The bisector of the angle. This vector has norm 1.
          */
-        var B = Point2D(.0, .0)
+        val B = Geometry.vector()
 
         /**
          * The vector that from tol-left corner of the label, to its center of symmetry.
          * @see T
          */
-        var W = Point2D(.0, .0)
+        val W = Geometry.vector()
 
 
         var backgroundColor: Paint by background::fill
@@ -227,6 +236,11 @@ data class AngleDecorator(val angle: Angle) {
             private var oldDragTranslation = Point2D(.0, .0)
             private var dr = Point2D(.0, .0)
 
+            /**
+             * `true` if the label has been dragged since the mouse has been pressed
+             */
+            private var dragged = false
+
             init {
                 label.setOnMousePressed { event ->
                     anchorPoint = Point2D(event.screenX, event.screenY)
@@ -245,12 +259,21 @@ data class AngleDecorator(val angle: Angle) {
                     dragTranslation.set(dr)
 
                     // update the angle
-                    dragToTranslationAngle = angleBetween(dr, T, RADIANS)
+                    dragToTranslationAngle = Geometry.angleBetween(dr.x, dr.y, T[X], T[Y], RADIANS)
 
                     updateDragLines()
+                    dragged = true
 
                     it.consume()
                 }
+
+                // the journal keeps only the final displacement of the drag
+                label.setOnMouseReleased {
+                    if (dragged) {
+                        dragged = false
+                        Journal.labelMoved(this@AngleDecorator)
+                    }
+                }
             }
         }
     }
@@ -259,7 +282,12 @@ data class AngleDecorator(val angle: Angle) {
      * The label displaying the angle measure
      */
     val angleLabel = MeasureLabel()
-    private val arc: Arc = Arc()
+
+    /**
+     * The arc of the angle. With the [RenderMode.CANVAS] renderer it isn't added to the pane, and is drawn from its
+     * properties by the [CanvasRenderer].
+     */
+    internal val arc: Arc = Arc()
 
     val chain get() = angle.vertex.chain
 
@@ -267,17 +295,56 @@ data class AngleDecorator(val angle: Angle) {
     private val dragVector = Line()
     private val circle = Circle(0.0, Color.AQUAMARINE)
 
+    /**
+     * Formatter of the label text, remembering the last displayed value
+     */
+    private val formatter = AngleFormatter()
+
+    /**
+     * `true` while the decorator is waiting to be recomputed by the [FrameScheduler]
+     */
+    internal var scheduled = false
+
+    private var disposed = false
+
+    /**
+     * `false` while the nodes are detached from the pane by the [ViewportCulling]. A detached decorator isn't
+     * recomputed, until it is attached again.
+     */
+    private var attached = true
+
+    /**
+     * Listeners and bindings of the decorator, removed on [dispose]
+     */
+    private val subscriptions = Subscriptions()
+
+    /**
+     * The chain label style currently applied to the label
+     */
+    private var appliedStyle: LabelStyle? = null
+
+    // buffers reused by the label layout, to avoid allocations on every update
+    private val normal = Geometry.vector()
+    private val dragDirection = Geometry.vector()
+
 
     /**
      * Remove all nodes belonging to this decorator from the [Pane]
      */
     fun dispose(pane: Pane) {
+        disposed = true
+        subscriptions.dispose()
+        chain.measureRemoved(this)
+        Journal.measureRemoved(angle)
+
         listOf(
             vectorLine,
             dragVector,
             arc,
             angleLabel
         ).forEach { pane.children.remove(it) }
+
+        CanvasRenderer.invalidate()
     }
 
     fun containsDot(dot: Dot, asVertex: Boolean = false): Boolean {
@@ -290,14 +357,11 @@ data class AngleDecorator(val angle: Angle) {
     fun build() { // todo remove and put in constructor
         val vertex = angle.vertex
 
-        // add the nodes to the Pane and move them to background
-        pane.children.addAll(
-            circle,
-            arc,
-            angleLabel,
-//            dragVector,
-//            vectorLine,
-        )
+        // add the nodes to the Pane and move them to background, unless the vertex is out of view
+        attached = !vertex.culled
+
+        if (attached)
+            pane.children.addAll(nodes())
 
         pane.requestLayout()
 
@@ -308,15 +372,15 @@ data class AngleDecorator(val angle: Angle) {
         }
 
         with(vectorLine) {
-            startXProperty().bind(vertex.centerXProperty())
-            startYProperty().bind(vertex.centerYProperty())
+            subscriptions.bind(startXProperty(), vertex.centerXProperty())
+            subscriptions.bind(startYProperty(), vertex.centerYProperty())
             stroke = Color.RED
 //            isVisible = false
         }
 
         with(dragVector) {
-            startXProperty().bind(vertex.centerXProperty())
-            startYProperty().bind(vertex.centerYProperty())
+            subscriptions.bind(startXProperty(), vertex.centerXProperty())
+            subscriptions.bind(startYProperty(), vertex.centerYProperty())
             stroke = Color.CORAL
 //            isVisible = false
         }
@@ -324,8 +388,8 @@ data class AngleDecorator(val angle: Angle) {
 
         // create the arc
         arc.apply {
-            centerXProperty().bind(vertex.centerXProperty())
-            centerYProperty().bind(vertex.centerYProperty())
+            subscriptions.bind(centerXProperty(), vertex.centerXProperty())
+            subscriptions.bind(centerYProperty(), vertex.centerYProperty())
             radiusX = 20.0
             radiusY = 20.0
             type = ArcType.ROUND
@@ -334,23 +398,21 @@ data class AngleDecorator(val angle: Angle) {
             strokeWidth = 1.5
             length = angle.measure()
             startAngle = getInitialAngle()
+            isVisible = LevelOfDetail.current == Level.FULL
         }
 
         angleLabel.apply {
-            text = format(angle.measure())
-            isVisible = true
-
-            // initialize appearance properties
-            fill = chain.measureLabelFontColor
-            font = Font.font(font.name, chain.measureLabelFontSize)
-            backgroundColor = chain.measureLabelBackgroundColor
+            formatter.format(angle.measure())
+            text = formatter.text
+            isVisible = LevelOfDetail.current == Level.FULL
 
-            layoutXProperty().bind(vertex.centerXProperty())
-            layoutYProperty().bind(vertex.centerYProperty())
-
-            hideBackground(chain.measureLabelBackgroundVisibility)
+            subscriptions.bind(layoutXProperty(), vertex.centerXProperty())
+            subscriptions.bind(layoutYProperty(), vertex.centerYProperty())
         }
 
+        // initialize appearance properties
+        applyStyle(chain.labelStyle)
+
         angleLabel.setOnMouseClicked {
             if (it.button == MouseButton.SECONDARY) {
                 // show the label context-menu
@@ -359,45 +421,88 @@ data class AngleDecorator(val angle: Angle) {
             }
         }
 
-        // listen to changes of the font color
-        chain.measureLabelFontColorProperty.addListener { _, _, color ->
-            angleLabel.fill = color
-        }
+        // the unit property is global: a weak listener doesn't keep alive the decorators never disposed
+        subscriptions.listen(measureUnitProperty, weak = true) { update() }
 
-        // listen to changes of the font size
-        chain.measureLabelFontSizeProperty.addListener { _, _, size ->
-            angleLabel.font = Font.font(
-                angleLabel.font.name,
-                chain.measureLabelFontWeight,
-                size.toDouble()
-            )
-        }
+        arc.toBack()
+        angleLabel.toBack()
+
+        FrameScheduler.markDirty(this)
+        chain.measureAdded(this)
+        Journal.measureAdded(angle)
+    }
 
-        // listen to changes of the font weight
-        chain.measureLabelFontWeightProperty.addListener { _, _, weight ->
-            angleLabel.font = Font.font(
-                angleLabel.font.name,
-                weight,
-                chain.measureLabelFontSize
+    /**
+     * The nodes added to the pane: with the [RenderMode.CANVAS] renderer only the label is a node.
+     */
+    private fun nodes(): List<Node> =
+        if (RenderMode.isCanvas)
+            listOf(angleLabel)
+        else
+            listOf(
+                circle,
+                arc,
+                angleLabel,
+//                dragVector,
+//                vectorLine,
             )
-        }
 
-        // listen to changes of the background visibility
-        chain.measureLabelBackgroundVisibilityProperty.addListener { _, _, visible ->
-            angleLabel.hideBackground(visible)
-        }
+    /**
+     * Show the arc and the label only in the [Level.FULL] level of detail, where the label is updated again.
+     */
+    internal fun applyLevel(level: Level) {
+        val full = level == Level.FULL
 
-        // listen to changes of the background color
-        chain.measureLabelBackgroundColorProperty.addListener { _, _, color ->
-            angleLabel.backgroundColor = color
-        }
+        arc.isVisible = full
+        angleLabel.isVisible = full
 
-        measureUnitProperty.addListener { _, _, _ -> update() }
+        if (full)
+            FrameScheduler.markDirty(this)
+    }
 
-        arc.toBack()
-        angleLabel.toBack()
+    /**
+     * Collect in [nodes] the nodes to add back to the pane, scheduling the recomputation skipped while detached.
+     */
+    internal fun attach(nodes: MutableCollection<Node>) {
+        if (attached || disposed)
+            return
+
+        attached = true
+        nodes.addAll(nodes())
+        FrameScheduler.markDirty(this)
+    }
+
+    /**
+     * Collect in [nodes] the nodes to remove from the pane, keeping the state of the decorator.
+     */
+    internal fun detach(nodes: MutableCollection<Node>) {
+        if (!attached || disposed)
+            return
 
-        updateLabelPosition()
+        attached = false
+        nodes.addAll(nodes())
+    }
+
+    /**
+     * Apply the chain [style] to the measure label. Nothing is done if the style is already the applied one.
+     */
+    fun applyStyle(style: LabelStyle) {
+        if (style === appliedStyle)
+            return
+
+        val previous = appliedStyle
+        appliedStyle = style
+
+        with(angleLabel) {
+            if (previous?.font != style.font)
+                font = style.font
+            fill = style.fontColor
+            backgroundColor = style.backgroundFill
+        }
+
+        // a different font changes the label size, hence its position
+        if (previous != null && previous.font != style.font)
+            FrameScheduler.markDirty(this)
     }
 
     fun resetLabelPosition() {
@@ -406,69 +511,90 @@ data class AngleDecorator(val angle: Angle) {
             dragTranslation.y = .0
         }
 
-        updateLabelPosition()
+        FrameScheduler.markDirty(this)
+        Journal.labelMoved(this)
+    }
+
+    /**
+     * Move the label by the displacement the user dragged it, as saved in a project.
+     * @param angle The angle between the default position and the displacement, in **radians**
+     */
+    fun restoreLabelPosition(dx: Double, dy: Double, angle: Double) {
+        with(angleLabel) {
+            dragTranslation.x = dx
+            dragTranslation.y = dy
+            dragToTranslationAngle = angle
+        }
+
+        FrameScheduler.markDirty(this)
+
+        // a new measure is journaled with the label in its default position
+        if (dx != .0 || dy != .0)
+            Journal.labelMoved(this)
     }
 
-    private fun isLabelPositionCustomized() = angleLabel.dragTranslation.toVector() != Point2D(.0, .0)
+    private fun isLabelPositionCustomized() = with(angleLabel.dragTranslation) { x != .0 || y != .0 }
 
     @Suppress("LocalVariableName")
-    fun updateLabelPosition() {
+    private fun updateLabelPosition(angleMeasure: Double) {
 
         fun dR(a: Double) =
             dR * (MAX_DISTANCE_FROM_CENTER - a) / (MAX_DISTANCE_FROM_CENTER - MIN_DISTANCE_FROM_CENTER)
 
-        runLater {
-            with(angleLabel) {
-                val bounds = boundsInParent
-                val angleMeasure = angle.measure()
+        with(angleLabel) {
+            // the preferred size already reflects the current text, while the bounds are updated only by the layout
+            val width = prefWidth(-1.0)
+            val height = prefHeight(-1.0)
 
-                // the normal vector to the first side of the angle, pointing to the interior of the angle (the -1)
-                val N1 = angle.L1.orthogonal(-1)
+            // the normal vector to the first side of the angle, pointing to the interior of the angle (the -1)
+            val N1 = Geometry.orthogonal(angle.l1x, angle.l1y, -1, normal)
 
-                // translate to the center of symmetry of the rectangle
-                W = Point2D(-bounds.width / 2, -bounds.height / 2)
+            // translate to the center of symmetry of the rectangle
+            W[X] = -width / 2
+            W[Y] = -height / 2
 
-                B = angle.bisector()
+            angle.bisector(B)
 
-                /* for angle less than 90° correct the position (the minimum space is guaranteed by the circumscribed
-                circle to the measure label */
-                if (angleMeasure < 90.0 && !isLabelPositionCustomized()) {
-                    R = 0.5 * sqrt(bounds.width.pow(2) + bounds.height.pow(2)) + dR(a)
+            /* for angle less than 90° correct the position (the minimum space is guaranteed by the circumscribed
+            circle to the measure label */
+            if (angleMeasure < 90.0 && !isLabelPositionCustomized()) {
+                R = 0.5 * sqrt(width.pow(2) + height.pow(2)) + dR(a)
 
-                    a = max(R / (B dot N1), MIN_DISTANCE_FROM_CENTER)
-                    a = min(MAX_DISTANCE_FROM_CENTER, a)
-                } else {
-                    a = MIN_DISTANCE_FROM_CENTER
-                }
+                a = max(R / Geometry.dot(B[X], B[Y], N1[X], N1[Y]), MIN_DISTANCE_FROM_CENTER)
+                a = min(MAX_DISTANCE_FROM_CENTER, a)
+            } else {
+                a = MIN_DISTANCE_FROM_CENTER
+            }
 
-                T = B.multiply(a) sum W
+            T[X] = a * B[X] + W[X]
+            T[Y] = a * B[Y] + W[Y]
 
-                // recalculate the drag-vector position to preserve the angle with the translation vector
-                val dragVectorMagnitude = dragTranslation.toVector().magnitude()
-                val d = T.normalize()
-                    .rotate(-dragToTranslationAngle)
-                    .multiply(dragVectorMagnitude)
+            // recalculate the drag-vector position to preserve the angle with the translation vector
+            val dragVectorMagnitude = Geometry.magnitude(dragTranslation.x, dragTranslation.y)
+            val d = Geometry.normalize(T[X], T[Y], dragDirection)
+            Geometry.rotate(d[X], d[Y], -dragToTranslationAngle, d)
 
-                bisectorTranslation.set(T)
-                dragTranslation.set(d)
+            bisectorTranslation.x = T[X]
+            bisectorTranslation.y = T[Y]
+            dragTranslation.x = d[X] * dragVectorMagnitude
+            dragTranslation.y = d[Y] * dragVectorMagnitude
 
-                updateDragLines()
-            }
+            updateDragLines()
         }
     }
 
     private fun updateDragLines() {
         with(angleLabel) {
             circle.apply {
-                centerX = T.x - W.x + arc.centerX
-                centerY = T.y - W.y + arc.centerY
+                centerX = T[X] - W[X] + arc.centerX
+                centerY = T[Y] - W[Y] + arc.centerY
                 radius = R
                 angleLabel.toFront()
             }
 
             vectorLine.apply {
-                endX = T.x + arc.centerX
-                endY = T.y + arc.centerY
+                endX = T[X] + arc.centerX
+                endY = T[Y] + arc.centerY
             }
         }
 
@@ -479,7 +605,18 @@ data class AngleDecorator(val angle: Angle) {
     }
 
 
-    fun update() {
+    /**
+     * Request the update of the arc and of the label. The update is performed once per frame by the [FrameScheduler].
+     */
+    fun update() = FrameScheduler.markDirty(this)
+
+    /**
+     * Recompute the arc and the label from the current position of the angle dots.
+     */
+    internal fun recompute() {
+        if (disposed || !attached)
+            return
+
         // the updated angle measure
         val angleMeasure = angle.measure()
 
@@ -491,10 +628,14 @@ data class AngleDecorator(val angle: Angle) {
 
         // update label position and text
         if (angleLabel.isVisible) {
-            angleLabel.text = format(angleMeasure)
+            // skip the text write when the displayed value doesn't change
+            if (formatter.format(angleMeasure))
+                angleLabel.text = formatter.text
 
-            updateLabelPosition()
+            updateLabelPosition(angleMeasure)
         }
+
+        CanvasRenderer.invalidate()
     }
 
     override fun equals(other: Any?): Boolean {
@@ -513,7 +654,7 @@ data class AngleDecorator(val angle: Angle) {
         return result
     }
 
-    private fun getInitialAngle() = angleBetween(angle.L1, Point2D(1.0, 0.0))
+    private fun getInitialAngle() = Geometry.angleBetween(angle.l1x, angle.l1y, 1.0, 0.0)
 
     companion object {
         private val log: Logger = LogFactory.configureLog(AngleDecorator::class.java)
@@ -521,38 +662,5 @@ data class AngleDecorator(val angle: Angle) {
         const val dR = 3.0
         const val MAX_DISTANCE_FROM_CENTER = 110.0
         const val MIN_DISTANCE_FROM_CENTER = 46.0
-
-        private val DECIMAL_DEGREE_TEMPLATE = "%.${ANGLE_LABEL_PRECISION}f°"
-        private val RADIANS_TEMPLATE = "%.${ANGLE_LABEL_PRECISION}f"
-        private const val SEXAGESIMAL_DEGREE_TEMPLATE = "%d° %02d' %02d''"
-        private val CENTESIMAL_DEGREE_TEMPLATE = "%d° %02d' %02d''"
-
-        /**
-         * Format the given measure
-         * @param angle The measure in **degrees**
-         */
-        @Suppress("LocalVariableName")
-        fun format(angle: Double): String {
-            return when (MEASURE_UNIT) {
-                RADIANS -> RADIANS_TEMPLATE.format(Math.toRadians(angle))
-                SEXAGESIMAL_DEGREES -> {
-                    val S = round(angle * 3600).toInt()
-                    val seconds = S % 60
-                    val minutes = (S / 60) % 60
-                    val degrees = (S / 3600)
-
-                    SEXAGESIMAL_DEGREE_TEMPLATE.format(degrees, minutes, seconds)
-                }
-                DECIMAL_DEGREE -> DECIMAL_DEGREE_TEMPLATE.format(angle)
-                CENTESIMAL_DEGREE -> {
-                    val S = round(angle * 10 / 9 * 10000).toInt()
-                    val seconds = S % 100
-                    val minutes = (S / 100) % 100
-                    val degrees = (S / 10000)
-
-                    CENTESIMAL_DEGREE_TEMPLATE.format(degrees, minutes, seconds)
-                }
-            }
-        }
     }
 }
\ No newline at end of file
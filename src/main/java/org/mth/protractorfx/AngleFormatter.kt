@@ -0,0 +1,134 @@
+package org.mth.protractorfx
+
+import org.mth.protractorfx.tool.MeasureUnit
+import org.mth.protractorfx.tool.MeasureUnit.*
+import java.text.DecimalFormatSymbols
+import kotlin.math.roundToLong
+
+/**
+ * Fixed-precision formatter of angle measures. The digits are written into a reused char buffer, and a new [text] is
+ * produced only when the rounded value, the unit or the precision changes from the previous call.
+ * @param decimalSeparator The separator of the decimal digits, by default the one of the default locale, as
+ * `String.format` does
+ */
+class AngleFormatter(private val decimalSeparator: Char = DecimalFormatSymbols.getInstance().decimalSeparator) {
+
+    private val buffer = CharArray(32)
+    private var length = 0
+
+    private var lastUnit: MeasureUnit? = null
+    private var lastPrecision = -1
+    private var lastValue = Long.MIN_VALUE
+
+    /**
+     * The last formatted measure
+     */
+    var text: String = ""
+        private set
+
+    /**
+     * Format the given measure.
+     * @param angle The measure in **degrees**
+     * @param precision The number of decimal digits used by the decimal units
+     * @return `true` if the [text] has changed
+     */
+    fun format(angle: Double, unit: MeasureUnit = MEASURE_UNIT, precision: Int = ANGLE_LABEL_PRECISION): Boolean {
+        val digits = precision.coerceIn(0, MAX_PRECISION)
+
+        // the rounded value, in units of the least significant digit displayed
+        val value = when (unit) {
+            RADIANS -> (Math.toRadians(angle) * POWERS_OF_TEN[digits]).roundToLong()
+            DECIMAL_DEGREE -> (angle * POWERS_OF_TEN[digits]).roundToLong()
+            SEXAGESIMAL_DEGREES -> (angle * 3600).roundToLong()
+            CENTESIMAL_DEGREE -> (angle * 10 / 9 * 10000).roundToLong()
+        }
+
+        if (value == lastValue && unit == lastUnit && digits == lastPrecision)
+            return false
+
+        lastValue = value
+        lastUnit = unit
+        lastPrecision = digits
+        length = 0
+
+        when (unit) {
+            RADIANS -> writeFixed(value, digits)
+            DECIMAL_DEGREE -> {
+                writeFixed(value, digits)
+                write('°')
+            }
+            SEXAGESIMAL_DEGREES -> writeDegrees(value, 60)
+            CENTESIMAL_DEGREE -> writeDegrees(value, 100)
+        }
+
+        text = String(buffer, 0, length)
+
+        return true
+    }
+
+    /**
+     * Write the measure expressed as degrees, minutes and seconds.
+     * @param seconds The measure in seconds
+     * @param base The number of seconds in a minute and of minutes in a degree
+     */
+    private fun writeDegrees(seconds: Long, base: Int) {
+        writeNumber(seconds / (base * base), 1)
+        write('°')
+        write(' ')
+        writeNumber((seconds / base) % base, 2)
+        write('\'')
+        write(' ')
+        writeNumber(seconds % base, 2)
+        write('\'')
+        write('\'')
+    }
+
+    private fun writeFixed(value: Long, digits: Int) {
+        if (value < 0)
+            write('-')
+
+        val absolute = Math.abs(value)
+        val scale = POWERS_OF_TEN[digits].toLong()
+
+        writeNumber(absolute / scale, 1)
+
+        if (digits > 0) {
+            write(decimalSeparator)
+            writeNumber(absolute % scale, digits)
+        }
+    }
+
+    /**
+     * Write the non-negative [number], left-padded with zeros to at least [minDigits] digits.
+     */
+    private fun writeNumber(number: Long, minDigits: Int) {
+        var n = number
+        var count = 0
+
+        // count the digits
+        do {
+            count++
+            n /= 10
+        } while (n > 0)
+
+        count = maxOf(count, minDigits)
+        n = number
+
+        for (i in length + count - 1 downTo length) {
+            buffer[i] = '0' + (n % 10).toInt()
+            n /= 10
+        }
+
+        length += count
+    }
+
+    private fun write(char: Char) {
+        buffer[length++] = char
+    }
+
+    companion object {
+        const val MAX_PRECISION = 9
+
+        private val POWERS_OF_TEN = DoubleArray(MAX_PRECISION + 1) { Math.pow(10.0, it.toDouble()) }
+    }
+}
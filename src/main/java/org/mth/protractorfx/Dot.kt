@@ -1,14 +1,22 @@
 package org.mth.protractorfx
 
+import javafx.event.EventHandler
 import javafx.geometry.Point2D
 import javafx.scene.effect.DropShadow
 import javafx.scene.input.MouseButton
+import javafx.scene.input.MouseEvent
 import javafx.scene.input.MouseEvent.*
 import javafx.scene.paint.Color
 import javafx.scene.shape.Circle
 import org.mth.protractorfx.command.Action
+import org.mth.protractorfx.command.Coalescing
+import org.mth.protractorfx.command.Redoable
+import org.mth.protractorfx.command.Sized
 import org.mth.protractorfx.log.LogFactory
+import org.mth.protractorfx.render.CanvasRenderer
+import org.mth.protractorfx.render.ViewportCulling
 import org.mth.protractorfx.tool.Tool
+import java.util.logging.Level
 import java.util.logging.Logger
 import kotlin.math.max
 
@@ -21,8 +29,47 @@ class Dot(x: Double, y: Double, val chain: DotChain) : Circle() {
 
     val angleDecorators = mutableListOf<AngleDecorator>()
 
+    /**
+     * The connector lines incident to the dot, kept by the chain
+     */
+    internal val connectors = ArrayList<DotChain.ConnectorLine>(2)
+
+    /**
+     * The id of the node in the [DotChain.model] this dot is a view of, or -1 if the dot doesn't belong to the chain
+     */
+    var id: Int = -1
+        internal set
+
+    /**
+     * `true` while the dot lies outside the visible area, and its nodes are detached by the [ViewportCulling]
+     */
+    internal var culled = false
+
+    /**
+     * The last full pass of the [ViewportCulling] that found the dot in the visible area
+     */
+    internal var cullPass = 0
+
+    /**
+     * Stamp used by the [ViewportCulling] to add the dot only once to the moved dots of a pulse
+     */
+    internal var cullMark = 0
+
+    /**
+     * Stamp used by the journal to add the dot only once to the moved dots of a pulse
+     */
+    internal var journalMark = 0
+
+    /**
+     * Stamp used by [DragSupport] to add the dot only once to the set of dots to update
+     */
+    private var updateMark = 0
+
+    /**
+     * Selection state of the dot. It is changed only through the [Selection] object.
+     */
     var selected: Boolean = false
-        set(value) {
+        internal set(value) {
             field = value
             fill = if (value)
                 SELECTED_COLOR
@@ -45,24 +92,22 @@ class Dot(x: Double, y: Double, val chain: DotChain) : Circle() {
             }
         }
 
-        // listen for color changes
-        chain.chainColor.addListener { _, _, _ -> fill = chainColor }
-
         radius = DOT_RADIUS
         centerX = x
         centerY = y
         fill = chainColor
 
-        DragSupport(this)
+        DragSupport.install(this)
     }
 
 
-    fun isLeaf() = neighbors().size < 2
+    fun isLeaf() = chain.degree(this) < 2
 
     fun neighbors() = chain.neighbors(this)
 
     fun updateNeighboringAngles() {
-        angleDecorators.forEach { it.update() }
+        for (i in angleDecorators.indices)
+            angleDecorators[i].update()
     }
 
     fun addAngleMeasure(dot1: Dot, dot2: Dot) {
@@ -95,26 +140,47 @@ class Dot(x: Double, y: Double, val chain: DotChain) : Circle() {
         val SELECTED_COLOR: Color = Color.GRAY
     }
 
-    class DragSupport(dot: Dot) {
+    /**
+     * Mouse handlers shared by all the dots. The drag state lives in primitive buffers reused from one drag to the
+     * next, so that the handling of a [MOUSE_DRAGGED] event doesn't allocate.
+     */
+    object DragSupport {
+
+        private val log: Logger = LogFactory.configureLog(DragSupport::class.java)
 
-        private val anchorMap: MutableMap<Dot, Point2D> = mutableMapOf()
-        private var anchorPoint = Point2D(.0, .0)
-        private var anchorPointForDrag = Point2D(.0, .0)
-        private var dr = Point2D(.0, .0)
+        // snapshot of the dragged dots and of their locations when the mouse has been pressed
+        private var anchorDots = arrayOfNulls<Dot>(16)
+        private var anchorX = DoubleArray(16)
+        private var anchorY = DoubleArray(16)
+        private var anchorCount = 0
+
+        private var anchorScreenX = .0
+        private var anchorScreenY = .0
         private var dragInitialized = false
 
+        // dots whose angle measures have to be updated; the dots added in the current event carry the current mark
+        private var updateDots = arrayOfNulls<Dot>(16)
+        private var updateCount = 0
+        private var updateMark = 0
+
         private fun initDrag(dot: Dot) {
             log.fine("Drag detected")
 
             dot.radius = DOT_RADIUS_SMALL
             dot.toFront()
 
-            if (Selection.size != anchorMap.size)
-                anchorMap.keys.filter { it != dot }
-                    .forEach {
-                        anchorMap.remove(it)
-                        it.selected = false
+            if (Selection.size != anchorCount) {
+                // the pressed dot wasn't selected: drag only that one
+                Selection.batch {
+                    for (i in 0 until anchorCount) {
+                        if (anchorDots[i] != dot)
+                            Selection.unselect(anchorDots[i]!!)
                     }
+                }
+
+                clearAnchors()
+                addAnchor(dot)
+            }
 
             if (!dot.selected)
                 Selection.addToSelection(dot)
@@ -122,135 +188,268 @@ class Dot(x: Double, y: Double, val chain: DotChain) : Circle() {
             dragInitialized = true
         }
 
-        init {
-            dot.addEventHandler(MOUSE_CLICKED) {
-                if (it.button == MouseButton.SECONDARY) {
-                    // popup trigger
-                    DotMenu.configureBeforeShow(dot, it.x, it.y)
-                    it.consume()
-                } else if (it.button == MouseButton.PRIMARY) {
-                    if (Tool.activeTools().isNotEmpty()) {
-                        return@addEventHandler
-                    }
+        private fun addAnchor(dot: Dot) {
+            if (anchorCount == anchorDots.size) {
+                anchorDots = anchorDots.copyOf(anchorCount * 2)
+                anchorX = anchorX.copyOf(anchorCount * 2)
+                anchorY = anchorY.copyOf(anchorCount * 2)
+            }
+
+            anchorDots[anchorCount] = dot
+            anchorX[anchorCount] = dot.centerX
+            anchorY[anchorCount] = dot.centerY
+            anchorCount++
+        }
+
+        private fun clearAnchors() {
+            anchorDots.fill(null, 0, anchorCount)
+            anchorCount = 0
+        }
+
+        private fun markForUpdate(dot: Dot) {
+            if (dot.updateMark == updateMark)
+                return
+
+            dot.updateMark = updateMark
+
+            if (updateCount == updateDots.size)
+                updateDots = updateDots.copyOf(updateCount * 2)
 
-                    if (it.isControlDown) {
-                        // With CTRL + Click select the chain this dot belongs to
-                        log.finest("Chain selection trigger detected")
+            updateDots[updateCount++] = dot
+        }
+
+        private val onMouseClicked = EventHandler<MouseEvent> {
+            val dot = it.source as Dot
+
+            if (it.button == MouseButton.SECONDARY) {
+                // popup trigger
+                DotMenu.configureBeforeShow(dot, it.screenX, it.screenY)
+                it.consume()
+            } else if (it.button == MouseButton.PRIMARY) {
+                if (Tool.activeTools().isNotEmpty()) {
+                    return@EventHandler
+                }
+
+                if (it.isControlDown) {
+                    // With CTRL + Click select the chain this dot belongs to
+                    log.finest("Chain selection trigger detected")
 
+                    Selection.batch {
                         Selection.clear()
                         Selection.addToSelection(dot.chain)
-                        dot.requestFocus()
-                    } else if (it.isShiftDown) {
-                        log.finest("Increment selection trigger detected")
+                    }
+                    dot.requestFocus()
+                } else if (it.isShiftDown) {
+                    log.finest("Increment selection trigger detected")
 
-                        Selection.addToSelection(dot)
-                        dot.requestFocus()
-                    } else {
-                        if (it.isDragDetect) {
-                            log.finest("Single dot selection trigger detected")
+                    Selection.addToSelection(dot)
+                    dot.requestFocus()
+                } else {
+                    if (it.isDragDetect) {
+                        log.finest("Single dot selection trigger detected")
 
-                            Selection.select(dot)
-                            dot.requestFocus()
-                        }
+                        Selection.select(dot)
+                        dot.requestFocus()
                     }
-
-                    it.consume()
                 }
+
+                it.consume()
             }
+        }
 
-            dot.addEventHandler(MOUSE_PRESSED) { event ->
-                dot.chain.forEach { it.toFront() }
+        private val onMousePressed = EventHandler<MouseEvent> { event ->
+            val dot = event.source as Dot
+            Selection.setCurrent(dot)
 
-                // remove the old anchor points of the previous selection
-                anchorMap.clear()
-                anchorMap[dot] = dot.getCenter()
+            dot.chain.forEach { it.toFront() }
 
-                // save the coordinates of every node in the selection
-                Selection.forEach {
-                    anchorMap[it] = it.getCenter()
-                }
+            // remove the old anchor points of the previous selection
+            clearAnchors()
 
-                anchorPoint = Point2D(event.screenX, event.screenY)
-                anchorPointForDrag = dot.getCenter()
+            // save the coordinates of the pressed dot and of every node in the selection
+            if (!dot.selected)
+                addAnchor(dot)
 
-                log.fine("Mouse pressed. \n\tAnchor point = $anchorPoint \n\tDrag anchor = $anchorPointForDrag \n\tAnchorMap size = ${anchorMap.size}")
-            }
+            Selection.forEach { addAnchor(it) }
 
-            dot.addEventHandler(DRAG_DETECTED) { event ->
-                log.fine("Drag detected")
+            anchorScreenX = event.screenX
+            anchorScreenY = event.screenY
 
-                if (!dragInitialized)
-                    initDrag(dot)
+            if (log.isLoggable(Level.FINE))
+                log.fine("Mouse pressed. \n\tAnchor point = ($anchorScreenX, $anchorScreenY) \n\tAnchor dots = $anchorCount")
+        }
 
-                event.consume()
-            }
+        private val onDragDetected = EventHandler<MouseEvent> { event ->
+            log.fine("Drag detected")
 
-            dot.addEventHandler(MOUSE_RELEASED) {
-                dot.radius = DOT_RADIUS
-//                dot.toFront()
+            if (!dragInitialized)
+                initDrag(event.source as Dot)
 
-                if (!it.isDragDetect) {
-                    dragInitialized = false
+            event.consume()
+        }
 
-                    execute(MoveAction(anchorMap))
-                }
+        private val onMouseReleased = EventHandler<MouseEvent> {
+            val dot = it.source as Dot
+            dot.radius = DOT_RADIUS
+
+            if (!it.isDragDetect) {
+                dragInitialized = false
 
-                if (Tool.activeTools().isEmpty())
-                    it.consume()
+                val dotLocations = HashMap<Dot, Point2D>(anchorCount * 2)
+                for (i in 0 until anchorCount)
+                    dotLocations[anchorDots[i]!!] = Point2D(anchorX[i], anchorY[i])
+
+                execute(MoveAction(dotLocations))
+
+                if (DragMetrics.enabled && log.isLoggable(Level.FINE))
+                    log.fine("Drag completed. ${DragMetrics.report()}")
             }
 
+            if (Tool.activeTools().isEmpty())
+                it.consume()
+        }
+
+        private val onMouseDragged = EventHandler<MouseEvent> { mouseEvent ->
+            val allocatedBefore = if (DragMetrics.enabled) DragMetrics.allocatedBytes() else 0L
 
-            dot.addEventHandler(MOUSE_DRAGGED) { mouseEvent ->
-                log.fine("Dragging")
+            if (!dragInitialized)
+                initDrag(mouseEvent.source as Dot)
 
-                if (!dragInitialized)
-                    initDrag(dot)
+            // the delta from the anchor point
+            val dx = mouseEvent.screenX - anchorScreenX
+            val dy = mouseEvent.screenY - anchorScreenY
 
-                val currentDragPoint = Point2D(mouseEvent.screenX, mouseEvent.screenY)
+            updateMark++
+            updateCount = 0
 
-                // set of nodes for which update the angle measures
-                val updateList: HashSet<Dot> = HashSet()
+            for (i in 0 until anchorCount) {
+                val dot = anchorDots[i]!!
 
-                anchorMap.forEach { (dot, oldCenter) ->
-                    // calculate the delta from the anchor point
-                    dr = currentDragPoint.subtract(anchorPoint)
+                dot.centerX = max(anchorX[i] + dx, DOT_RADIUS)
+                dot.centerY = max(anchorY[i] + dy, DOT_RADIUS)
 
-                    // get the new center coordinates of the node
-                    val newCenter = dr sum oldCenter
+                // add the node and its neighbors to the update-set
+                markForUpdate(dot)
 
-                    dot.apply {
-                        centerX = max(newCenter.x, DOT_RADIUS)
-                        centerY = max(newCenter.y, DOT_RADIUS)
-                    }
+                val model = dot.chain.model
+                model.forEachNeighbor(dot.id) { markForUpdate(dot.chain.dot(it)) }
+            }
 
-                    // add the node and its neighbors to the update-set
-                    updateList.add(dot)
-                    updateList.addAll(dot.neighbors())
-                }
+            for (i in 0 until updateCount) {
+                updateDots[i]!!.updateNeighboringAngles()
+                updateDots[i] = null
+            }
+
+            if (DragMetrics.enabled)
+                DragMetrics.record(DragMetrics.allocatedBytes() - allocatedBefore)
+        }
 
-                updateList.forEach { it.updateNeighboringAngles() }
+        /**
+         * Deliver to the [dot] a mouse [event] received by another node, as done by the [CanvasRenderer] for the dots
+         * that aren't in the scene graph.
+         * @return `true` if the dot consumed the event
+         */
+        internal fun dispatch(dot: Dot, event: MouseEvent): Boolean {
+            val handler = when (event.eventType) {
+                MOUSE_CLICKED -> onMouseClicked
+                MOUSE_PRESSED -> onMousePressed
+                DRAG_DETECTED -> onDragDetected
+                MOUSE_RELEASED -> onMouseReleased
+                MOUSE_DRAGGED -> onMouseDragged
+                else -> return false
             }
+
+            val dotEvent = event.copyFor(dot, dot)
+            handler.handle(dotEvent)
+
+            return dotEvent.isConsumed
         }
 
-        companion object {
-            private val log: Logger = LogFactory.configureLog(DragSupport::class.java)
+        /**
+         * Register the shared mouse handlers on the [dot].
+         */
+        fun install(dot: Dot) {
+            dot.addEventHandler(MOUSE_CLICKED, onMouseClicked)
+            dot.addEventHandler(MOUSE_PRESSED, onMousePressed)
+            dot.addEventHandler(DRAG_DETECTED, onDragDetected)
+            dot.addEventHandler(MOUSE_RELEASED, onMouseReleased)
+            dot.addEventHandler(MOUSE_DRAGGED, onMouseDragged)
         }
     }
 
+    /**
+     * The move of a set of dots, already done by the user. The locations after the move are taken on execution.
+     * Consecutive moves of the same dots are merged into a single action.
+     *
+     * The dots are referred to by chain and node id, rather than as views: a dot deleted and brought back by an undo
+     * has a new view, but the same id.
+     * @param dotLocations The locations of the dots before the move
+     */
     class MoveAction(
-        private val dotLocations: Map<Dot, Point2D>,
+        dotLocations: Map<Dot, Point2D>,
         override val name: String = "move-dots",
-    ) : Action {
+    ) : Action, Redoable, Coalescing, Sized {
+
+        private val chains: Array<DotChain>
+        private val ids: IntArray
+        private val oldLocations: DoubleArray
+
+        init {
+            // sorted by chain and id, so that two moves of the same nodes have the same keys
+            val entries = dotLocations.entries.sortedWith(compareBy({ it.key.chain.id }, { it.key.id }))
+
+            chains = Array(entries.size) { entries[it].key.chain }
+            ids = IntArray(entries.size) { entries[it].key.id }
+            oldLocations = DoubleArray(entries.size * 2)
+
+            entries.forEachIndexed { i, (_, point) ->
+                oldLocations[2 * i] = point.x
+                oldLocations[2 * i + 1] = point.y
+            }
+        }
 
-        override fun execute() = true
+        private var newLocations = oldLocations
 
-        override fun undo() {
+        /**
+         * @return `false` if no dot has actually moved
+         */
+        override fun execute(): Boolean {
+            newLocations = DoubleArray(ids.size * 2).also { locations ->
+                for (i in ids.indices) {
+                    locations[2 * i] = chains[i].model.x(ids[i])
+                    locations[2 * i + 1] = chains[i].model.y(ids[i])
+                }
+            }
+
+            return !newLocations.contentEquals(oldLocations)
+        }
+
+        override fun undo() = moveTo(oldLocations)
+
+        override fun redo() = moveTo(newLocations)
+
+        override fun coalesce(next: Action): Boolean {
+            if (next !is MoveAction || !next.ids.contentEquals(ids) || !next.chains.contentEquals(chains))
+                return false
+
+            newLocations = next.newLocations
+            return true
+        }
+
+        // the keys and the two locations of every dot
+        override val sizeInBytes get() = ids.size * 44L
+
+        private fun moveTo(locations: DoubleArray) {
             // set of nodes for which update the angle measures
             val updateList: HashSet<Dot> = HashSet()
 
-            dotLocations.forEach { (dot, point) ->
-                dot.centerX = point.x
-                dot.centerY = point.y
+            for (i in ids.indices) {
+                if (!chains[i].model.contains(ids[i]))
+                    continue
+
+                val dot = chains[i].dot(ids[i])
+                dot.centerX = locations[2 * i]
+                dot.centerY = locations[2 * i + 1]
 
                 updateList.add(dot)
                 updateList.addAll(dot.neighbors())
@@ -1,65 +1,152 @@
 package org.mth.protractorfx
 
+import javafx.beans.InvalidationListener
+import javafx.beans.property.ReadOnlyProperty
 import javafx.beans.property.SimpleBooleanProperty
 import javafx.beans.property.SimpleDoubleProperty
 import javafx.beans.property.SimpleObjectProperty
-import javafx.geometry.Point2D
+import javafx.geometry.Insets
+import javafx.scene.Node
+import javafx.scene.control.Label
+import javafx.scene.layout.Background
+import javafx.scene.layout.BackgroundFill
+import javafx.scene.layout.CornerRadii
 import javafx.scene.layout.Pane
 import javafx.scene.paint.Color
-import javafx.scene.shape.Line
+import javafx.scene.shape.*
 import javafx.scene.text.FontWeight
 import javafx.scene.transform.Translate
 import org.mth.protractorfx.animation.FadeIn
 import org.mth.protractorfx.animation.FadeOut
 import org.mth.protractorfx.animation.ParallelAnimationFX
+import org.mth.protractorfx.geometry.Geometry
+import org.mth.protractorfx.geometry.Geometry.X
+import org.mth.protractorfx.geometry.Geometry.Y
+import org.mth.protractorfx.model.ChainModel
+import org.mth.protractorfx.model.ChainState
+import org.mth.protractorfx.project.DecoratorData
+import org.mth.protractorfx.project.Journal
+import org.mth.protractorfx.render.CanvasRenderer
+import org.mth.protractorfx.render.LevelOfDetail
+import org.mth.protractorfx.render.LevelOfDetail.Level
+import org.mth.protractorfx.render.RenderMode
+import org.mth.protractorfx.render.ViewportCulling
 import java.util.*
 import kotlin.math.PI
 
-class DotChain(private val container: Pane, color: Color? = Color.BLACK) :
+class DotChain(private val container: Pane, color: Color? = Color.BLACK, id: Int = -1) :
     Iterable<Dot> {
 
     /**
-     * A connection line between two graph nodes
+     * A connection line between two graph nodes. The lines are compared by identity, as any other node of the scene
+     * graph: the chain finds them by edge in its registry.
      */
-    data class ConnectorLine(val dot1: Dot, val dot2: Dot) : Line() {
+    class ConnectorLine(val dot1: Dot, val dot2: Dot) : Line() {
+
+        /**
+         * `true` while the line is detached from the container by the [ViewportCulling]
+         */
+        internal var culled = false
 
         // The Pane container this Line belongs to
         private val parent get() = dot1.parent as Pane
 
+        private val subscriptions = Subscriptions()
+
         init {
-            startXProperty().bind(dot1.centerXProperty())
-            startYProperty().bind(dot1.centerYProperty())
+            subscriptions.bind(startXProperty(), dot1.centerXProperty())
+            subscriptions.bind(startYProperty(), dot1.centerYProperty())
 
-            endXProperty().bind(dot2.centerXProperty())
-            endYProperty().bind(dot2.centerYProperty())
+            subscriptions.bind(endXProperty(), dot2.centerXProperty())
+            subscriptions.bind(endYProperty(), dot2.centerYProperty())
 
-            // add the line to the parent Pane
-            parent.children.add(this)
             isVisible = true
             stroke = dot1.chainColor.desaturate()
 
+            setOnMouseClicked {
+                dot1.chain.forEach { it.toFront() }
+            }
+        }
+
+        /**
+         * Add the line to the parent Pane, behind the other nodes
+         */
+        fun show() {
+            parent.children.add(this)
+
             FadeIn(this).apply {
                 setSpeed(2.0)
                 play()
             }
 
             toBack()
-
-            setOnMouseClicked {
-                dot1.chain.forEach { it.toFront() }
-            }
         }
 
         /**
-         * Returns `true` if this line connect the two graph nodes
+         * Release the bindings to the two dots
+         */
+        fun dispose() = subscriptions.dispose()
+
+        /**
+         * The endpoint of the line other than [dot]
+         */
+        fun opposite(dot: Dot) = if (dot === dot1) dot2 else dot1
+
+        /**
+         * Collect the line in [removed] if it has gone out of the visible area of the [ViewportCulling], or in [shown]
+         * if it has come back into view.
          */
-        fun match(dot1: Dot, dot2: Dot) =
-            (dot1 == this.dot1 && dot2 == this.dot2)
-                    || (dot1 == this.dot2 && dot2 == this.dot1)
+        internal fun cull(shown: MutableCollection<Node>, removed: MutableCollection<Node>) {
+            val visible = ViewportCulling.intersects(startX, startY, endX, endY)
+
+            if (visible == culled) {
+                culled = !visible
+
+                if (visible)
+                    shown.add(this)
+                else
+                    removed.add(this)
+            }
+        }
     }
 
-    private val adjacencyList: MutableMap<Dot, HashSet<Dot>> = mutableMapOf()
-    private val connectors: HashSet<ConnectorLine> = HashSet()
+    /**
+     * Identifier of the chain, unique in the session. A chain loaded from a project keeps the id it was saved with.
+     */
+    val id = if (id >= 0) id.also { nextId = maxOf(nextId, id + 1) } else nextId++
+
+    /**
+     * Coordinates and adjacency of the nodes. The [Dot] objects are views over this model, indexed by [Dot.id].
+     */
+    val model = ChainModel()
+
+    private var views = arrayOfNulls<Dot>(16)
+    /**
+     * The connector lines, indexed by the [edgeKey] of the ids of their dots. Every dot also lists the lines incident
+     * to it, so that an edit finds the lines of an edge or of a dot in constant time.
+     */
+    private val connectors = HashMap<Long, ConnectorLine>()
+
+    /**
+     * The measures built on the dots of the chain
+     */
+    private val decorators: MutableSet<AngleDecorator> = Collections.newSetFromMap(IdentityHashMap())
+
+    /**
+     * Shared by all the dots of the chain, copies the coordinates of a moved dot into the [model]
+     */
+    private val locationListener = InvalidationListener {
+        val dot = (it as ReadOnlyProperty<*>).bean as Dot
+
+        if (dot.id >= 0) {
+            model.setLocation(dot.id, dot.centerX, dot.centerY)
+            DotIndex.move(dot)
+            Journal.dotMoved(dot)
+            CanvasRenderer.invalidate()
+            ViewportCulling.moved(dot)
+            invalidateOverview()
+        }
+    }
 
     /**
      * The color of the nodes of this chain
@@ -78,10 +165,53 @@ class DotChain(private val container: Pane, color: Color? = Color.BLACK) :
     var measureLabelBackgroundVisibility: Boolean by measureLabelBackgroundVisibilityProperty
     var measureLabelBackgroundColor: Color by measureLabelBackgroundColorProperty
 
+    /**
+     * The style shared by all the measure labels of the chain, rebuilt when one of the label properties changes
+     */
+    var labelStyle: LabelStyle = buildLabelStyle()
+        private set
+
+    private var labelStyleDirty = false
+
+    /**
+     * The level of detail the chain is drawn with
+     */
+    private var level = Level.FULL
+
+    /**
+     * Badge collecting the measures of the chain, shown when the labels aren't drawn
+     */
+    private val badge = Label().apply {
+        isMouseTransparent = true
+        padding = Insets(1.0, 4.0, 1.0, 4.0)
+    }
+
+    /**
+     * Simplified polyline replacing the dots and the connectors in the [Level.OVERVIEW] level
+     */
+    private val overview = Path().apply {
+        isMouseTransparent = true
+    }
+
+    /**
+     * `true` when the chain has changed since the last refresh of the badge and of the overview polyline
+     */
+    private var overviewDirty = false
+
+    /**
+     * The merging distance the overview polyline has been simplified with
+     */
+    private var overviewTolerance = .0
+
+    private val overviewTask = Runnable {
+        if (overviewDirty && level != Level.FULL)
+            refreshOverview()
+    }
+
     /**
      * Get the total number of nodes in this chain
      */
-    val size: Int get() = adjacencyList.size
+    val size: Int get() = model.size
 
     init {
         if (color == null) {
@@ -99,68 +229,130 @@ class DotChain(private val container: Pane, color: Color? = Color.BLACK) :
         } else
             chainColor.set(color)
 
-        // update the connector color in response to a change of the chain color
+        // update the dots and connectors color in response to a change of the chain color
         chainColor.addListener { _, _, chainColor ->
-            connectors.forEach {
+            forEach {
+                if (!it.selected)
+                    it.fill = chainColor
+            }
+
+            connectors.values.forEach {
                 it.stroke = chainColor.desaturate()
             }
+
+            CanvasRenderer.invalidate()
+            invalidateOverview()
+            Journal.colorChanged(this)
         }
+
+        listOf(
+            measureLabelFontColorProperty,
+            measureLabelFontSizeProperty,
+            measureLabelFontWeightProperty,
+            measureLabelBackgroundVisibilityProperty,
+            measureLabelBackgroundColorProperty
+        ).forEach { it.addListener { _ -> invalidateLabelStyle() } }
+
+        Journal.chainCreated(this)
     }
 
-    fun translate(translate: Translate) {
-        forEach { dot ->
-            dot.centerX += translate.x
-            dot.centerY += translate.y
+    private fun buildLabelStyle() = LabelStyle.of(
+        measureLabelFontSize,
+        measureLabelFontWeight,
+        measureLabelFontColor,
+        measureLabelBackgroundColor,
+        measureLabelBackgroundVisibility
+    )
+
+    /**
+     * Schedule the rebuild of the [labelStyle], applied to all the labels of the chain in a single pass at the next
+     * pulse. Several property changes in the same frame produce a single style.
+     */
+    private fun invalidateLabelStyle() {
+        if (labelStyleDirty)
+            return
+
+        labelStyleDirty = true
+
+        FrameScheduler.post {
+            labelStyleDirty = false
+            labelStyle = buildLabelStyle()
+            Journal.styleChanged(this)
+
+            forEach { dot ->
+                dot.angleDecorators.forEach { it.applyStyle(labelStyle) }
+            }
         }
     }
 
+    fun translate(translate: Translate) {
+        model.translate(translate.x, translate.y)
+        updateViews()
+    }
+
     fun rotate(alpha: Double) {
-        val barycenter = barycenter()
+        val barycenter = barycenter(Geometry.vector())
+        val rotatedCenter = Geometry.vector()
 
-        forEach { dot ->
-            val rotatedCenter = (dot.getCenter() sub barycenter).rotate(alpha) sum barycenter
-            dot.centerX = rotatedCenter.x
-            dot.centerY = rotatedCenter.y
+        model.forEachId { id ->
+            Geometry.rotateAround(model.x(id), model.y(id), barycenter[X], barycenter[Y], alpha, rotatedCenter)
+            model.setLocation(id, rotatedCenter[X], rotatedCenter[Y])
         }
+
+        updateViews()
     }
 
-    fun barycenter(): Point2D {
-        var x = 0.0
-        var y = 0.0
+    /**
+     * Write in [out] the barycenter of the chain nodes.
+     */
+    fun barycenter(out: DoubleArray) = Geometry.barycenter(model.xs, model.ys, model.idBound, out, model.alive)
 
-        forEach {
-            x += it.centerX
-            y += it.centerY
-        }
+    /**
+     * Return the [Dot] identified by [id] in the [model].
+     */
+    fun dot(id: Int) = views[id]!!
+
+    fun neighbors(dot: Dot): List<Dot> {
+        val neighbors = ArrayList<Dot>(model.degree(dot.id))
+        model.forEachNeighbor(dot.id) { neighbors.add(views[it]!!) }
 
-        return Point2D(x / size, y / size)
+        return neighbors
     }
 
-    fun neighbors(dot: Dot): HashSet<Dot> = adjacencyList[dot]!!
+    /**
+     * The number of nodes connected to the [dot]
+     */
+    fun degree(dot: Dot) = model.degree(dot.id)
 
     fun addDots(vararg dots: Dot) {
         dots.forEach { dot ->
-            if (!adjacencyList.containsKey(dot))
-                adjacencyList[dot] = HashSet()
-            container.children.add(dot)
-            dot.isVisible = true
-            dot.toFront()
+            if (!contains(dot))
+                register(dot)
+
+            if (!RenderMode.isCanvas) {
+                container.children.add(dot)
+                dot.isVisible = level != Level.OVERVIEW
+                dot.toFront()
+            }
         }
     }
 
 
     fun addDot(dot: Dot): Boolean {
-        return if (adjacencyList.containsKey(dot))
+        return if (contains(dot))
             false
         else {
-            adjacencyList[dot] = HashSet()
-            container.children.add(dot)
-            dot.isVisible = true
-            dot.toFront()
+            register(dot)
 
-            FadeIn(dot).apply {
-                setSpeed(2.5)
-                play()
+            if (!RenderMode.isCanvas) {
+                container.children.add(dot)
+                dot.isVisible = level != Level.OVERVIEW
+                dot.toFront()
+
+                FadeIn(dot).apply {
+                    setSpeed(2.5)
+                    play()
+                }
             }
 
             true
@@ -172,14 +364,13 @@ class DotChain(private val container: Pane, color: Color? = Color.BLACK) :
         if (size == 1) {
             dispose()
         } else if (dot.isLeaf()) {
-            val parent = adjacencyList[dot]!!.first() // there's only one node connected (it's a leaf...)
+            val parent = views[model.neighbor(dot.id, 0)]!! // there's only one node connected (it's a leaf...)
 
-            // remove the dot from its parent's adjacency list and from the adjacency list itself
-            adjacencyList[parent]!!.remove(dot)
-            adjacencyList.remove(dot)
+            // detach the connection, while the dots are still bound to the ids of its key
+            val dotConnection = removeConnector(dot, parent)
 
-            // get the connection and removes it from Pane
-            val dotConnection = connectors.first { it.match(dot, parent) }
+            // remove the dot, and the edge to its parent, from the model
+            unregister(dot)
 
             // remove the measures, related to the deleted node, around the angle
             parent.angleDecorators
@@ -189,6 +380,12 @@ class DotChain(private val container: Pane, color: Color? = Color.BLACK) :
                     parent.angleDecorators.remove(it)
                 }
 
+            // the canvas has nothing to animate: the dot disappears at the next redraw
+            if (RenderMode.isCanvas || dotConnection == null) {
+                container.requestFocus()
+                return
+            }
+
             // animate the removal
             ParallelAnimationFX(
                 FadeOut(dotConnection).apply {
@@ -196,7 +393,9 @@ class DotChain(private val container: Pane, color: Color? = Color.BLACK) :
                 },
                 FadeOut(dot).apply {
                     setSpeed(3.0)
-                    setOnFinished { container.children.removeAll(dot, dotConnection) }
+                    setOnFinished {
+                        container.children.removeAll(dot, dotConnection)
+                    }
                 }
             ).run { play() }
 
@@ -206,37 +405,548 @@ class DotChain(private val container: Pane, color: Color? = Color.BLACK) :
         }
     }
 
+    /**
+     * Remove the [dots], with their edges and measures, in a single pass. The scene graph is updated by one change of
+     * the container children, without animations.
+     */
+    fun removeDots(dots: Collection<Dot>) {
+        val removed = dots.filterTo(HashSet()) { contains(it) }
+
+        if (removed.isEmpty())
+            return
+
+        if (removed.size == size) {
+            dispose()
+            return
+        }
+
+        // the measures on the removed dots, and the ones of the remaining neighbors having them as extreme
+        removed.forEach { dot ->
+            dot.angleDecorators.forEach { it.dispose(container) }
+            dot.angleDecorators.clear()
+
+            model.forEachNeighbor(dot.id) { id ->
+                val neighbor = views[id]!!
+
+                if (neighbor !in removed) {
+                    neighbor.angleDecorators.removeIf { decorator ->
+                        decorator.containsDot(dot).also { if (it) decorator.dispose(container) }
+                    }
+                }
+            }
+        }
+
+        if (!RenderMode.isCanvas) {
+            val nodes = HashSet<Node>(removed)
+
+            // the lines incident to the removed dots, each found once from its first removed endpoint
+            removed.forEach { dot ->
+                while (dot.connectors.isNotEmpty())
+                    nodes.add(removeConnector(dot, dot.connectors.last().opposite(dot))!!)
+            }
+
+            container.children.removeAll(nodes)
+        }
+
+        removed.forEach { unregister(it) }
+
+        // Move focus on the Pane, to handle correctly the key-released event
+        container.requestFocus()
+    }
+
     fun connect(dot1: Dot, dot2: Dot) {
-        adjacencyList[dot1]?.add(dot2)
-        adjacencyList[dot2]?.add(dot1)
+        if (contains(dot1) && contains(dot2) && model.connect(dot1.id, dot2.id)) {
+            Journal.connected(dot1, dot2)
+            invalidateOverview()
+        }
 
-        connectors.add(ConnectorLine(dot1, dot2))
+        if (RenderMode.isCanvas)
+            CanvasRenderer.invalidate()
+        else if (contains(dot1) && contains(dot2) && connectors[edgeKey(dot1.id, dot2.id)] == null)
+            addConnector(ConnectorLine(dot1, dot2).apply {
+                isVisible = level != Level.OVERVIEW
+                show()
+            })
+    }
+
+    /**
+     * Register the [line] by the edge of its dots, that must be bound to the chain.
+     */
+    private fun addConnector(line: ConnectorLine) {
+        connectors[edgeKey(line.dot1.id, line.dot2.id)] = line
+        line.dot1.connectors.add(line)
+        line.dot2.connectors.add(line)
+    }
+
+    /**
+     * Unregister and dispose the line connecting the two dots, still bound to the chain. The line is left in the
+     * container.
+     * @return The removed line, or `null` if none connects the dots
+     */
+    private fun removeConnector(dot1: Dot, dot2: Dot): ConnectorLine? {
+        val line = connectors.remove(edgeKey(dot1.id, dot2.id)) ?: return null
+
+        line.dot1.connectors.remove(line)
+        line.dot2.connectors.remove(line)
+        line.dispose()
+
+        return line
+    }
+
+    /**
+     * Rebuild the nodes and the edges of a saved chain, with the ids they had in the [model]. The dots and the
+     * connectors are added to the container in a single step, without animations.
+     * @param edges The ids of the connected nodes, in pairs
+     */
+    fun restore(ids: IntArray, xs: DoubleArray, ys: DoubleArray, edges: IntArray) {
+        val dots = ArrayList<Dot>(ids.size)
+
+        for (i in ids.indices) {
+            val dot = Dot(xs[i], ys[i], this)
+            register(dot, ids[i])
+            dots.add(dot)
+        }
+
+        for (i in 0 until edges.size / 2) {
+            if (model.connect(edges[2 * i], edges[2 * i + 1]))
+                Journal.connected(dot(edges[2 * i]), dot(edges[2 * i + 1]))
+        }
+
+        if (RenderMode.isCanvas)
+            return
+
+        val lines = ArrayList<ConnectorLine>(edges.size / 2)
+
+        for (i in 0 until edges.size / 2) {
+            if (connectors[edgeKey(edges[2 * i], edges[2 * i + 1])] != null)
+                continue
+
+            val line = ConnectorLine(dot(edges[2 * i]), dot(edges[2 * i + 1]))
+            line.isVisible = level != Level.OVERVIEW
+            addConnector(line)
+            lines.add(line)
+        }
+
+        dots.forEach { it.isVisible = level != Level.OVERVIEW }
+
+        container.children.addAll(0, lines)
+        container.children.addAll(dots)
+    }
+
+    fun contains(dot: Dot) = dot.chain == this && model.contains(dot.id) && views[dot.id] === dot
+
+    /**
+     * Add the [dot] to the [model], binding the view to the new node id.
+     * @param id The id the node must have, or -1 to let the model choose it
+     */
+    private fun register(dot: Dot, id: Int = -1) {
+        val nodeId = if (id < 0)
+            model.add(dot.centerX, dot.centerY)
+        else
+            id.also { model.addWithId(it, dot.centerX, dot.centerY) }
+
+        bind(dot, nodeId)
+    }
+
+    /**
+     * Bind the [dot] to the node [id], already in the [model].
+     */
+    private fun bind(dot: Dot, id: Int) {
+        if (id >= views.size)
+            views = views.copyOf(maxOf(id + 1, views.size * 2))
+
+        views[id] = dot
+        dot.id = id
+        DotIndex.insert(dot)
+
+        dot.centerXProperty().addListener(locationListener)
+        dot.centerYProperty().addListener(locationListener)
+
+        ViewportCulling.track(dot)
+        CanvasRenderer.invalidate()
+        invalidateOverview()
+        Journal.dotAdded(dot)
+    }
+
+    private fun unregister(dot: Dot) {
+        val id = dot.id
+
+        unbind(dot)
+        model.remove(id)
+    }
+
+    /**
+     * Release the [dot] from its node, left in the [model].
+     */
+    private fun unbind(dot: Dot) {
+        Journal.dotRemoved(dot)
+        Selection.unselect(dot)
+        dot.centerXProperty().removeListener(locationListener)
+        dot.centerYProperty().removeListener(locationListener)
+
+        DotIndex.remove(dot)
+        ViewportCulling.untrack(dot)
+        views[dot.id] = null
+        dot.id = -1
+
+        CanvasRenderer.invalidate()
+        invalidateOverview()
+    }
+
+    /**
+     * Track the [decorator], just built on a dot of the chain.
+     */
+    internal fun measureAdded(decorator: AngleDecorator) {
+        decorators.add(decorator)
+        invalidateOverview()
+    }
+
+    internal fun measureRemoved(decorator: AngleDecorator) {
+        decorators.remove(decorator)
+        invalidateOverview()
+    }
+
+    /**
+     * Take a version of the chain, for the undo history. The nodes are shared with the previous version, so the cost
+     * depends only on the nodes changed in the meantime.
+     */
+    fun snapshot() = Snapshot(model.snapshot(), decorators.map {
+        with(it.angle) {
+            DecoratorData(
+                vertex.id,
+                extreme1.id,
+                extreme2.id,
+                it.angleLabel.dragTranslation.x,
+                it.angleLabel.dragTranslation.y,
+                it.angleLabel.dragToTranslationAngle
+            )
+        }
+    })
+
+    /**
+     * Bring the chain back to the [snapshot]. Only the nodes differing from the current state are touched, in the
+     * model and in the scene graph, in a single step and without animations.
+     */
+    fun restore(snapshot: Snapshot) {
+        val target = snapshot.state
+
+        // a chain emptied by the deletion of its dots, or removed, comes back
+        if (model.size == 0 && target.size > 0) {
+            Journal.chainCreated(this)
+
+            if (!chains.contains(this))
+                chains.add(this)
+        }
+
+        // drop the measures missing from the version, while their dots are still bound
+        val measures = snapshot.measures.associateBy { Triple(it.vertex, it.extreme1, it.extreme2) }
+        val kept = HashSet<Triple<Int, Int, Int>>()
+
+        decorators.toList().forEach {
+            val key = with(it.angle) { Triple(vertex.id, extreme1.id, extreme2.id) }
+
+            if (key in measures)
+                kept.add(key)
+            else {
+                it.dispose(container)
+                it.angle.vertex.angleDecorators.remove(it)
+            }
+        }
+
+        val updated = model.restore(target)
+
+        // connectors: the ones of the updated nodes no longer in the model are removed
+        val removedNodes = HashSet<Node>()
+        var edgeLost = false
+
+        if (!RenderMode.isCanvas) {
+            updated.forEach { id ->
+                val view = views.getOrNull(id) ?: return@forEach
+
+                for (line in view.connectors.toList()) {
+                    val other = line.opposite(view)
+                    val bothAlive = model.contains(id) && model.contains(other.id)
+
+                    if (!bothAlive || !model.isConnected(id, other.id)) {
+                        removedNodes.add(removeConnector(view, other)!!)
+                        edgeLost = edgeLost || bothAlive
+                    }
+                }
+            }
+        }
+
+        // dots: unbind the removed ones, bind new views to the added ones, move the others
+        val addedDots = ArrayList<Dot>()
+
+        updated.forEach { id ->
+            val view = views.getOrNull(id)
+
+            when {
+                !model.contains(id) -> if (view != null) {
+                    view.angleDecorators.clear()
+                    unbind(view)
+                    removedNodes.add(view)
+                }
+                view == null -> Dot(model.x(id), model.y(id), this).let {
+                    bind(it, id)
+                    addedDots.add(it)
+                }
+                else -> {
+                    view.centerX = model.x(id)
+                    view.centerY = model.y(id)
+                }
+            }
+        }
+
+        if (!RenderMode.isCanvas) {
+            val visible = level != Level.OVERVIEW
+            val lines = ArrayList<ConnectorLine>()
+
+            updated.forEach { id ->
+                if (model.contains(id)) {
+                    model.forEachNeighbor(id) { neighbor ->
+                        if (connectors[edgeKey(id, neighbor)] == null) {
+                            val line = ConnectorLine(views[id]!!, views[neighbor]!!).apply { isVisible = visible }
+                            addConnector(line)
+                            lines.add(line)
+                        }
+                    }
+                }
+            }
+
+            addedDots.forEach { it.isVisible = visible }
+
+            container.children.removeAll(removedNodes)
+            container.children.addAll(0, lines)
+            container.children.addAll(addedDots)
+        }
+
+        // the added dots are journaled by their binding, their edges here
+        addedDots.forEach { dot ->
+            model.forEachNeighbor(dot.id) { Journal.connected(dot, views[it]!!) }
+        }
+
+        snapshot.measures.forEach {
+            if (Triple(it.vertex, it.extreme1, it.extreme2) !in kept) {
+                val vertex = dot(it.vertex)
+                val decorator = AngleDecorator(Angle(vertex, dot(it.extreme1), dot(it.extreme2)))
+
+                vertex.angleDecorators.add(decorator)
+                decorator.build()
+                decorator.restoreLabelPosition(it.dragX, it.dragY, it.dragAngle)
+            }
+        }
+
+        // the measures around the moved dots
+        updated.forEach { id ->
+            if (model.contains(id)) {
+                views[id]!!.updateNeighboringAngles()
+                model.forEachNeighbor(id) { views[it]!!.updateNeighboringAngles() }
+            }
+        }
+
+        if (model.size == 0) {
+            container.children.removeAll(badge, overview)
+            chains.remove(this)
+            Journal.chainRemoved(this)
+        }
+
+        // the journal has no record for an edge removed between two remaining nodes
+        if (edgeLost)
+            Journal.checkpoint()
+
+        CanvasRenderer.invalidate()
+        invalidateOverview()
+    }
+
+    private fun edgeKey(a: Int, b: Int) = (minOf(a, b).toLong() shl 32) or maxOf(a, b).toLong()
+
+    /**
+     * A version of the chain, taken by [snapshot]. The nodes are shared with the other versions of the same chain; the
+     * measures, few, are copied.
+     */
+    class Snapshot internal constructor(internal val state: ChainState, internal val measures: List<DecoratorData>) {
+
+        /**
+         * Estimate of the memory retained by this version and not shared with the previous one, in bytes
+         */
+        val sizeInBytes: Long get() = state.copiedNodes * NODE_BYTES + measures.size * MEASURE_BYTES
+
+        private companion object {
+            // a node with a couple of neighbors, and its share of the copied branches
+            const val NODE_BYTES = 96L
+            const val MEASURE_BYTES = 64L
+        }
+    }
+
+    /**
+     * Detach from the container the connectors outside the visible area of the [ViewportCulling], collecting them in
+     * [removed], and collect in [shown] the ones coming back into view.
+     */
+    internal fun cullConnectors(shown: MutableCollection<Node>, removed: MutableCollection<Node>) {
+        connectors.values.forEach { it.cull(shown, removed) }
+    }
+
+    /**
+     * Draw the chain with the given level of detail. Outside the [Level.FULL] level the badge and the overview
+     * polyline are refreshed when the level changes, when the chain has changed since the last refresh, or when the
+     * merging distance of the polyline has changed with the zoom.
+     */
+    internal fun applyLevel(level: Level) {
+        val levelChanged = level != this.level
+
+        if (levelChanged) {
+            this.level = level
+
+            val dotsVisible = level != Level.OVERVIEW
+
+            if (!RenderMode.isCanvas) {
+                forEach { it.isVisible = dotsVisible }
+                connectors.values.forEach { it.isVisible = dotsVisible }
+            }
+
+            forEach { dot -> dot.angleDecorators.forEach { it.applyLevel(level) } }
+
+            if (level == Level.FULL)
+                container.children.removeAll(badge, overview)
+            else if (badge.parent == null)
+                container.children.addAll(overview, badge)
+        }
+
+        val toleranceChanged = overviewTolerance != LevelOfDetail.overviewTolerance
+
+        if (level != Level.FULL && (levelChanged || overviewDirty || toleranceChanged))
+            refreshOverview()
+    }
+
+    /**
+     * Schedule the refresh of the overview at the next pulse, after a change of the chain. Nothing is scheduled in
+     * the [Level.FULL] level, where the overview isn't shown: the change is picked up when the level is left.
+     */
+    private fun invalidateOverview() {
+        if (overviewDirty)
+            return
+
+        overviewDirty = true
+
+        if (level != Level.FULL)
+            FrameScheduler.post(overviewTask)
+    }
+
+    private fun refreshOverview() {
+        overviewDirty = false
+        overviewTolerance = LevelOfDetail.overviewTolerance
+
+        var measures = 0
+        forEach { measures += it.angleDecorators.size }
+
+        with(badge) {
+            isVisible = size > 0
+            text = if (measures > 0) "$size \u2022 $measures\u2220" else "$size"
+            textFill = Color.WHITE
+            background = Background(BackgroundFill(chainColor.get(), CornerRadii(3.0), Insets.EMPTY))
+
+            if (size > 0) {
+                val center = barycenter(Geometry.vector())
+                layoutX = center[X]
+                layoutY = center[Y]
+            }
+        }
+
+        // the canvas renderer draws the polyline by itself
+        overview.isVisible = level == Level.OVERVIEW && !RenderMode.isCanvas
+        overview.elements.clear()
+
+        if (overview.isVisible) {
+            overview.stroke = chainColor.get().desaturate()
+
+            val elements = ArrayList<PathElement>()
+            model.forEachSimplifiedEdge(overviewTolerance) { a, b ->
+                elements.add(MoveTo(model.x(a), model.y(a)))
+                elements.add(LineTo(model.x(b), model.y(b)))
+            }
+
+            overview.elements.setAll(elements)
+        }
+    }
+
+    /**
+     * Copy the coordinates stored in the [model] into the dots.
+     */
+    private fun updateViews() {
+        model.forEachId { id ->
+            views[id]!!.apply {
+                centerX = model.x(id)
+                centerY = model.y(id)
+            }
+        }
     }
 
     /**
      * Remove all dots and their decorators (connector lines, measures) from the pane.
      */
     fun dispose() {
-        forEach { dot ->
-            // remove the dot from the pane
-            container.children.remove(dot)
+        // a single record replaces the ones of the removed dots and measures
+        Journal.chainRemoved(this)
+        Journal.muted { disposeNodes() }
+    }
 
-            // remove the connection lines
-            connectors.forEach { container.children.remove(it) }
-            connectors.clear()
+    private fun disposeNodes() {
+        val nodes = HashSet<Node>()
+        nodes.add(badge)
+        nodes.add(overview)
+
+        // the connection lines, all at once
+        connectors.values.forEach {
+            nodes.add(it)
+            it.dispose()
+        }
+        connectors.clear()
+
+        forEach { dot ->
+            nodes.add(dot)
+            dot.connectors.clear()
 
             // remove all decorators
             dot.angleDecorators.forEach { it.dispose(container) }
             dot.angleDecorators.clear()
         }
 
-        adjacencyList.clear()
+        // remove the dots and the lines from the pane in a single change
+        container.children.removeAll(nodes)
+
+        model.forEachId { unregister(views[it]!!) }
     }
 
-    override fun iterator() = adjacencyList.keys.iterator()
+    override fun iterator() = object : Iterator<Dot> {
+        private var id = nextId(0)
+
+        private fun nextId(from: Int): Int {
+            var next = from
+
+            while (next < model.idBound && !model.contains(next))
+                next++
+
+            return next
+        }
+
+        override fun hasNext() = id < model.idBound
+
+        override fun next(): Dot {
+            if (!hasNext())
+                throw NoSuchElementException()
+
+            val dot = views[id]!!
+            id = nextId(id + 1)
+
+            return dot
+        }
+    }
 
     companion object {
 
+        private var nextId = 0
+
         @JvmStatic
         fun standardChain(pane: Pane) =
             DotChain(pane).apply {
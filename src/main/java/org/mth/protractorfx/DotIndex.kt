@@ -0,0 +1,66 @@
+package org.mth.protractorfx
+
+import org.mth.protractorfx.model.SpatialGrid
+
+/**
+ * Spatial index over the dots of all the chains, kept up to date by [DotChain] as dots are added, removed and moved.
+ * The coordinates are the ones of the dots' container.
+ */
+object DotIndex {
+
+    private const val CELL_SIZE = 64.0
+
+    private val grid = SpatialGrid<Dot>(CELL_SIZE)
+
+    val size: Int get() = grid.size
+
+    internal fun insert(dot: Dot) = grid.insert(dot, dot.centerX, dot.centerY)
+
+    internal fun move(dot: Dot) = grid.move(dot, dot.centerX, dot.centerY)
+
+    internal fun remove(dot: Dot) = grid.remove(dot)
+
+    /**
+     * Find the dot nearest to the point (x, y).
+     * @param excludeLeaves If `true` the nodes with only one incoming connections (leaves) are ignored from the search
+     */
+    fun nearest(x: Double, y: Double, excludeLeaves: Boolean = false): Dot? =
+        if (excludeLeaves)
+            grid.nearest(x, y) { !it.isLeaf() }
+        else
+            grid.nearest(x, y)
+
+    /**
+     * Find the [k] dots nearest to the point (x, y), in order of increasing distance.
+     */
+    fun nearest(x: Double, y: Double, k: Int, excludeLeaves: Boolean = false): List<Dot> =
+        if (excludeLeaves)
+            grid.nearest(x, y, k) { !it.isLeaf() }
+        else
+            grid.nearest(x, y, k)
+
+    /**
+     * Return the dot whose circle contains the point (x, y), if any.
+     */
+    fun hit(x: Double, y: Double): Dot? = grid.hit(x, y, Dot.DOT_RADIUS)
+
+    fun withinRadius(x: Double, y: Double, radius: Double): List<Dot> {
+        val dots = mutableListOf<Dot>()
+        grid.withinRadius(x, y, radius) { dots.add(it) }
+
+        return dots
+    }
+
+    fun inRectangle(minX: Double, minY: Double, maxX: Double, maxY: Double): List<Dot> {
+        val dots = mutableListOf<Dot>()
+        forEachInRectangle(minX, minY, maxX, maxY) { dots.add(it) }
+
+        return dots
+    }
+
+    /**
+     * Call the [action] on every dot located inside the rectangle, without collecting them.
+     */
+    fun forEachInRectangle(minX: Double, minY: Double, maxX: Double, maxY: Double, action: (Dot) -> Unit) =
+        grid.inRectangle(minX, minY, maxX, maxY, action)
+}
@@ -7,8 +7,8 @@ import javafx.scene.control.ContextMenu
 import javafx.scene.control.Menu
 import javafx.scene.control.RadioMenuItem
 import javafx.scene.paint.Color
-import org.mth.protractorfx.command.Action
 import org.mth.protractorfx.log.LogFactory
+import org.mth.protractorfx.tool.ChainEditAction
 import java.net.URL
 import java.util.*
 import java.util.function.Consumer
@@ -82,8 +82,12 @@ class DotMenu : Initializable {
     }
 
 
-    class DeleteChainAction(private val dotChain: DotChain, override val name: String = "remove-chain") : Action {
-        override fun execute(): Boolean {
+    class DeleteChainAction(private val dotChain: DotChain, override val name: String = "remove-chain") :
+        ChainEditAction() {
+
+        override fun chains() = listOf(dotChain)
+
+        override fun edit(): Boolean {
             dotChain.dispose()
             chains.remove(dotChain)
 
@@ -91,10 +95,6 @@ class DotMenu : Initializable {
 
             return true
         }
-
-        override fun undo() {
-            // todo
-        }
     }
 
     companion object {
@@ -108,8 +108,12 @@ class DotMenu : Initializable {
             contextMenu
         }
 
+        /**
+         * Show the menu of the [dot] at the screen coordinates (x, y).
+         */
         fun configureBeforeShow(dot: Dot, x: Double, y: Double) {
-            menu.show(dot, x, y)
+            // the dots drawn on a canvas aren't in the scene: anchor the menu to their container
+            menu.show(if (dot.scene != null) dot else pane, x, y)
             controller.configureBeforeShow(dot)
         }
     }
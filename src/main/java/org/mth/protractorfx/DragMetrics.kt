@@ -0,0 +1,64 @@
+package org.mth.protractorfx
+
+import java.lang.management.ManagementFactory
+
+/**
+ * Allocation counter of the dot drag path. It sums the bytes allocated by the FX thread while handling the
+ * `MOUSE_DRAGGED` events of [Dot.DragSupport], as reported by the JVM per-thread allocation accounting.
+ *
+ * Reading the counter allocates on some JVMs, so the drag path reads it only when [enabled], with the system property
+ * `protractorfx.dragMetrics`.
+ */
+object DragMetrics {
+
+    private val threadBean = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+
+    /**
+     * `true` if the JVM supports the per-thread allocation accounting
+     */
+    val supported: Boolean = threadBean?.let {
+        it.isThreadAllocatedMemorySupported && it.isThreadAllocatedMemoryEnabled
+    } ?: false
+
+    /**
+     * `true` if the drag events are measured
+     */
+    @JvmField
+    val enabled = java.lang.Boolean.getBoolean("protractorfx.dragMetrics") && supported
+
+    /**
+     * The number of drag events handled
+     */
+    var events: Long = 0
+        private set
+
+    /**
+     * The bytes allocated while handling the drag events
+     */
+    var bytes: Long = 0
+        private set
+
+    /**
+     * The average allocation per drag event, in bytes
+     */
+    val bytesPerEvent: Double
+        get() = if (events == 0L) .0 else bytes.toDouble() / events
+
+    /**
+     * Return the bytes allocated so far by the current thread, or 0 if not [supported].
+     */
+    fun allocatedBytes(): Long =
+        if (supported) threadBean!!.getThreadAllocatedBytes(Thread.currentThread().id) else 0
+
+    internal fun record(allocated: Long) {
+        events++
+        bytes += allocated
+    }
+
+    fun reset() {
+        events = 0
+        bytes = 0
+    }
+
+    fun report() = "Drag events = $events, allocated bytes = $bytes (%.1f per event)".format(bytesPerEvent)
+}
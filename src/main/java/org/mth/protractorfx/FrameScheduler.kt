@@ -0,0 +1,132 @@
+package org.mth.protractorfx
+
+import javafx.animation.AnimationTimer
+
+/**
+ * Coalesce the updates of the [AngleDecorator]s: a decorator marked as dirty is recomputed only once, at the next
+ * pulse, however many times it has been marked in the meantime. The timer runs only while there is pending work.
+ */
+object FrameScheduler {
+
+    private var pending = ArrayList<AngleDecorator>()
+    private var processing = ArrayList<AngleDecorator>()
+
+    private var pendingTasks = ArrayList<Runnable>()
+    private var processingTasks = ArrayList<Runnable>()
+
+    private var pendingRenders = ArrayList<Runnable>()
+    private var processingRenders = ArrayList<Runnable>()
+
+    private var running = false
+
+    // open deferred blocks: while positive the pulses don't flush
+    private var holds = 0
+
+    private val timer = object : AnimationTimer() {
+        override fun handle(now: Long) {
+            if (holds == 0)
+                flush()
+        }
+    }
+
+    /**
+     * Schedule the recomputation of the [decorator] at the next pulse.
+     */
+    fun markDirty(decorator: AngleDecorator) {
+        if (decorator.scheduled)
+            return
+
+        decorator.scheduled = true
+        pending.add(decorator)
+
+        start()
+    }
+
+    /**
+     * Run the [task] at the next pulse, before the recomputation of the dirty decorators.
+     */
+    fun post(task: Runnable) {
+        pendingTasks.add(task)
+        start()
+    }
+
+    /**
+     * Run the [task] at the next pulse, after the recomputation of the dirty decorators, so that it sees their updated
+     * state.
+     */
+    fun postRender(task: Runnable) {
+        pendingRenders.add(task)
+        start()
+    }
+
+    /**
+     * Execute the [block] holding back the pulses, then run at once all the work it scheduled, so that a bulk edit costs
+     * a single recomputation of the decorators it touched. The blocks can be nested: only the outermost one flushes.
+     */
+    fun <T> deferred(block: () -> T): T {
+        hold()
+
+        try {
+            return block()
+        } finally {
+            release()
+        }
+    }
+
+    /**
+     * Hold back the pulses until the matching [release], as [deferred] does for a scope that isn't a single block.
+     */
+    fun hold() {
+        holds++
+    }
+
+    fun release() {
+        check(holds > 0) { "Unbalanced release" }
+
+        if (--holds == 0 && running)
+            flush()
+    }
+
+    private fun start() {
+        if (!running) {
+            running = true
+            timer.start()
+        }
+    }
+
+    /**
+     * Recompute, in a single pass, all the decorators marked as dirty.
+     */
+    fun flush() {
+        val tasks = pendingTasks
+        pendingTasks = processingTasks
+        processingTasks = tasks
+
+        tasks.forEach { it.run() }
+        tasks.clear()
+
+        // swap the buffers, so that decorators marked during the pass are handled at the next pulse
+        val decorators = pending
+        pending = processing
+        processing = decorators
+
+        decorators.forEach {
+            it.scheduled = false
+            it.recompute()
+        }
+
+        decorators.clear()
+
+        val renders = pendingRenders
+        pendingRenders = processingRenders
+        processingRenders = renders
+
+        renders.forEach { it.run() }
+        renders.clear()
+
+        if (pending.isEmpty() && pendingTasks.isEmpty() && pendingRenders.isEmpty()) {
+            running = false
+            timer.stop()
+        }
+    }
+}
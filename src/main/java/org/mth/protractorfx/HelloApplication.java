@@ -7,6 +7,7 @@ import javafx.scene.paint.Color;
 import javafx.stage.Stage;
 import javafx.stage.StageStyle;
 import jfxtras.styles.jmetro.JMetro;
+import org.mth.protractorfx.project.Journal;
 import org.mth.protractorfx.tool.Tool;
 
 import java.awt.*;
@@ -49,6 +50,12 @@ public class HelloApplication extends Application {
         GlobalKeyListener.INSTANCE.install();
     }
 
+    @Override
+    public void stop() {
+        // a clean exit leaves no journal: the next start begins a new session
+        Journal.close();
+    }
+
     public static void main(String[] args) {
         launch();
     }
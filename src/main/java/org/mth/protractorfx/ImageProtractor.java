@@ -5,6 +5,7 @@ import javafx.beans.property.SimpleDoubleProperty;
 import javafx.event.EventHandler;
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
+import javafx.geometry.Point2D;
 import javafx.geometry.Rectangle2D;
 import javafx.scene.control.Button;
 import javafx.scene.control.Menu;
@@ -16,32 +17,51 @@ import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyEvent;
+import javafx.scene.layout.HBox;
 import javafx.scene.layout.Pane;
 import javafx.scene.paint.Color;
 import javafx.scene.transform.Scale;
+import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
 import javafx.stage.FileChooser.ExtensionFilter;
 import javafx.stage.Stage;
 import javafx.stage.StageStyle;
+import kotlin.Unit;
 import org.mth.protractorfx.command.Action;
 import org.mth.protractorfx.command.CommandManager;
+import org.mth.protractorfx.image.ImageCrop;
+import org.mth.protractorfx.image.ImageLoading;
+import org.mth.protractorfx.image.ScreenshotService;
+import org.mth.protractorfx.image.TileCache;
+import org.mth.protractorfx.image.TileSource;
+import org.mth.protractorfx.image.TiledImageView;
+import org.mth.protractorfx.image.ViewportCropAction;
 import org.mth.protractorfx.log.LogFactory;
+import org.mth.protractorfx.project.ImageReference;
+import org.mth.protractorfx.project.Journal;
+import org.mth.protractorfx.project.MeasureExport;
+import org.mth.protractorfx.project.ProjectData;
+import org.mth.protractorfx.project.ProjectFile;
+import org.mth.protractorfx.project.ProjectSnapshot;
+import org.mth.protractorfx.render.CanvasRenderer;
+import org.mth.protractorfx.render.RenderMode;
+import org.mth.protractorfx.render.ViewportCulling;
 import org.mth.protractorfx.tool.DeletionTool;
 import org.mth.protractorfx.tool.InsertionTool;
 import org.mth.protractorfx.tool.MeasureUnit;
 import org.mth.protractorfx.tool.Tool;
 
-import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URL;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.ResourceBundle;
 import java.util.logging.Logger;
 
@@ -59,6 +79,10 @@ public class ImageProtractor implements Initializable {
 
     private short backgroundOpacity = 10;
 
+    private static final int SCREENSHOT_BURST_SIZE = 10;
+    private static final long SCREENSHOT_BURST_INTERVAL = 200;
+    private static final long SCREENSHOT_TIMED_INTERVAL = 2000;
+
     /**
      * The current zoom value
      */
@@ -68,6 +92,23 @@ public class ImageProtractor implements Initializable {
     Image image = null;
     CropArea cropArea;
 
+    /**
+     * The view of the opened image, when it is too large to be decoded at once
+     */
+    TiledImageView tiledImage = null;
+
+    /**
+     * The image being decoded in background, if any
+     */
+    ImageLoading imageLoading = null;
+
+    /**
+     * Location and size, in pixels of [imageFile], of the displayed region, and subsampling it has been decoded with.
+     * The region is `null` until a crop, when the whole file is displayed.
+     */
+    java.awt.Rectangle decodedRegion = null;
+    int regionSubsampling = 1;
+
     @FXML
     ScrollPane imageScrollPane;
     @FXML
@@ -87,7 +128,13 @@ public class ImageProtractor implements Initializable {
     @FXML
     Menu measureUnitMenu;
     @FXML
+    Menu screenshotFormatMenu;
+    @FXML
     Button maximizeButton;
+    @FXML
+    HBox loadingBox;
+    @FXML
+    ProgressBar loadingProgress;
 
     DotChain chain;
 
@@ -103,6 +150,11 @@ public class ImageProtractor implements Initializable {
             }
         });
 
+        // the canvas goes behind the selection rectangle and the measure labels
+        if (RenderMode.isCanvas()) {
+            CanvasRenderer.INSTANCE.install(container);
+        }
+
         container.getChildren().add(SelectionRectangle.INSTANCE);
 
         // bind zoom update with the related transform
@@ -181,75 +233,384 @@ public class ImageProtractor implements Initializable {
             group.getToggles().add(item);
         }
 
+        ToggleGroup formatGroup = new ToggleGroup();
+
+        for (ScreenshotService.Format format : ScreenshotService.Format.values()) {
+            RadioMenuItem item = new RadioMenuItem(format.name());
+            item.setSelected(ScreenshotService.INSTANCE.getFormat() == format);
+            item.setOnAction(actionEvent -> ScreenshotService.INSTANCE.setFormat(format));
+            screenshotFormatMenu.getItems().add(item);
+            formatGroup.getToggles().add(item);
+        }
+
         container.getChildren().add(MouseCoordinateLabel.INSTANCE);
 
-        chain = DotChain.randomChain(container);
-        UtilsKt.setChain(chain);
-        UtilsKt.getChains().add(chain);
+        // keep in the scene only the elements in view, re-evaluated on scroll and zoom as well
+        ViewportCulling.INSTANCE.install(container,
+                imageScrollPane.hvalueProperty(),
+                imageScrollPane.vvalueProperty(),
+                zoomValue);
+
+        // rebuild the last session, if it crashed and left its journal, otherwise start from a new chain
+        ProjectData recovered = Journal.recover();
+
+        if (recovered != null && !recovered.getChains().isEmpty()) {
+            showProject(recovered);
+        } else {
+            chain = DotChain.randomChain(container);
+            UtilsKt.setChain(chain);
+            UtilsKt.getChains().add(chain);
+        }
+
+        Journal.open(Journal.DEFAULT_FILE, this::imageReference);
 
         container.requestFocus();
     }
 
     private void moveSelectedDots(double dr, int direction) {
+        if (direction != Adjustable.VERTICAL && direction != Adjustable.HORIZONTAL) {
+            log.warning("Something strange happened");
+            return;
+        }
+
+        Map<Dot, Point2D> locations = new HashMap<>();
         HashSet<Dot> updateSet = new HashSet<>();
 
-        if (direction == Adjustable.VERTICAL) {
+        // a nudge is a move as a drag is: repeated nudges of the same dots are undone in a single step
+        CommandManager.INSTANCE.transaction("nudge-dots", () -> {
             Selection.INSTANCE.forEach(dot -> {
-                dot.setCenterY(dot.getCenterY() + dr);
-                updateSet.add(dot);
-                updateSet.addAll(dot.neighbors());
-            });
+                locations.put(dot, UtilsKt.getCenter(dot));
+
+                if (direction == Adjustable.VERTICAL)
+                    dot.setCenterY(dot.getCenterY() + dr);
+                else
+                    dot.setCenterX(dot.getCenterX() + dr);
 
-            log.fine(String.format("Moving selected dots [Direction=%s, dr=%.2f]", direction, dr));
-        } else if (direction == Adjustable.HORIZONTAL) {
-            Selection.INSTANCE.forEach(dot -> {
-                dot.setCenterX(dot.getCenterX() + dr);
                 updateSet.add(dot);
                 updateSet.addAll(dot.neighbors());
             });
 
-            log.fine(String.format("Moving selected dots [Direction=%s, dr=%.2f]", direction, dr));
-        } else
-            log.warning("Something strange happened");
+            updateSet.forEach(Dot::updateNeighboringAngles);
+            CommandManager.INSTANCE.execute(new Dot.MoveAction(locations, "nudge-dots"));
+
+            return Unit.INSTANCE;
+        });
 
-        updateSet.forEach(Dot::updateNeighboringAngles);
+        log.fine(String.format("Moving selected dots [Direction=%s, dr=%.2f]", direction, dr));
     }
 
     private void cropImage() {
-        Rectangle2D viewport = imageView.getViewport();
+        cropArea.show(false);
 
-        System.out.println("Viewport = " + viewport);
-        System.out.println(imageView.fitWidthProperty());
-        System.out.println(imageView.fitHeightProperty());
+        if (imageFile == null) {
+            log.warning("No image to crop");
+            return;
+        }
 
-        double scale = getImageScalingFactor(imageView);
-        System.out.println("scale = " + scale);
+        // an image displayed at once is cropped just by its viewport, as an undoable action
+        if (tiledImage == null) {
+            ViewportCropAction crop = ViewportCropAction.of(imageView,
+                    cropArea.getX(), cropArea.getY(), cropArea.getWidth(), cropArea.getHeight(), zoomValue.get());
 
-        System.out.println("Crop area = " + new Rectangle2D(cropArea.getX(), cropArea.getY(), cropArea.getWidth(), cropArea.getHeight()));
+            if (crop != null) {
+                CommandManager.INSTANCE.execute(crop);
+            }
 
-        double cropWidth = cropArea.getWidth() / scale;
-        double cropHeight = cropArea.getHeight() / scale;
+            return;
+        }
 
-        try {
-            BufferedImage original = ImageIO.read(imageFile);
-//            BufferedImage original = SwingFXUtils.fromFXImage(image, null);
-            BufferedImage croppedImage = original.getSubimage((int) (cropArea.getX() / scale), (int) (cropArea.getY() / scale), (int) cropWidth, (int) cropHeight);
+        double scale = zoomValue.get();
+
+        // the crop area in pixels of the source file, displayed whole by the tiles
+        java.awt.Rectangle region = new java.awt.Rectangle(
+                (int) (cropArea.getX() / scale),
+                (int) (cropArea.getY() / scale),
+                (int) (cropArea.getWidth() / scale),
+                (int) (cropArea.getHeight() / scale)
+        );
 
-            imageFile = new File(UtilsKt.SNAPSHOT_DIR, "sdfsdf.jpg");
-            ImageIO.write(croppedImage, "JPEG", imageFile);
+        int subsampling = ImageCrop.subsamplingFor(region.width, region.height, TiledImageView.MAX_TEXTURE_SIZE);
+        File source = imageFile;
 
-//            image = SwingFXUtils.toFXImage(croppedImage, new WritableImage((int) cropWidth, (int) cropHeight));
-            image = new Image(new FileInputStream(imageFile));
-            imageView.setImage(image);
-            imageView.setViewport(new Rectangle2D(0, 0, image.getWidth(), image.getHeight()));
-            imageView.setFitWidth(image.getWidth());
-            imageView.setFitHeight(image.getHeight());
-        } catch (Exception e) {
-            e.printStackTrace();
+        log.fine("Cropping " + region + " of " + source + " [subsampling=" + subsampling + "]");
+
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return ImageCrop.decodeRegion(source, region, subsampling);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }).whenComplete((cropped, error) -> Platform.runLater(() -> {
+            if (error != null) {
+                log.severe("Cannot crop the image: " + error.getMessage());
+            } else if (source == imageFile) {
+                showCroppedImage(cropped, region, subsampling);
+            }
+        }));
+    }
+
+    private void showCroppedImage(BufferedImage cropped, java.awt.Rectangle region, int subsampling) {
+        disposeTiledImage();
+
+        // only the displayed copy of the pixels is kept: a save decodes them again from the file
+        image = ImageCrop.toWritableImage(cropped);
+
+        // the region clipped to the image bounds, as decoded
+        decodedRegion = new java.awt.Rectangle(Math.max(0, region.x), Math.max(0, region.y),
+                cropped.getWidth() * subsampling, cropped.getHeight() * subsampling);
+        regionSubsampling = subsampling;
+
+        imageView.setImage(image);
+        imageView.setViewport(new Rectangle2D(0, 0, image.getWidth(), image.getHeight()));
+        imageView.setFitWidth(image.getWidth());
+        imageView.setFitHeight(image.getHeight());
+        imageScrollPane.setContent(imageView);
+
+        Journal.checkpoint();
+    }
+
+    /**
+     * Write the displayed part of the image to a file chosen by the user
+     */
+    @FXML
+    void saveImage() {
+        if (image == null) {
+            log.info("No image to save");
+            return;
         }
 
-//        cropArea.setVisible(false);
-        cropArea.show(false);
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.getExtensionFilters().addAll(
+                new ExtensionFilter("PNG", "*.png"),
+                new ExtensionFilter("JPEG", "*.jpg", "*.jpeg")
+        );
+
+        File output = fileChooser.showSaveDialog(null);
+
+        if (output != null) {
+            Rectangle2D viewport = imageView.getViewport();
+            java.awt.Rectangle visible = new java.awt.Rectangle(
+                    (int) viewport.getMinX(), (int) viewport.getMinY(),
+                    (int) viewport.getWidth(), (int) viewport.getHeight()
+            );
+
+            java.awt.Rectangle region = decodedRegion;
+            int subsampling = regionSubsampling;
+            File source = imageFile;
+
+            // the viewport is in pixels of the displayed image, decoded from the region of the file
+            if (region != null) {
+                visible = new java.awt.Rectangle(
+                        region.x + visible.x * subsampling, region.y + visible.y * subsampling,
+                        visible.width * subsampling, visible.height * subsampling
+                );
+            }
+
+            java.awt.Rectangle area = visible;
+
+            CompletableFuture.runAsync(() -> {
+                try {
+                    // the viewport crops aren't applied to the pixels until now
+                    ImageCrop.save(ImageCrop.decodeRegion(source, area, subsampling), output);
+
+                    log.info("Image saved to " + output.getAbsolutePath());
+                } catch (IOException e) {
+                    log.severe("Cannot save the image: " + e.getMessage());
+                }
+            });
+        }
+    }
+
+    private void resetImageRegion() {
+        decodedRegion = null;
+        regionSubsampling = 1;
+    }
+
+    private static FileChooser projectChooser() {
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.getExtensionFilters().add(
+                new ExtensionFilter("ProtractorFX project", "*." + ProjectFile.EXTENSION)
+        );
+
+        return fileChooser;
+    }
+
+    /**
+     * Write the chains, their measures and the reference to the displayed image to a project file
+     */
+    @FXML
+    void saveProject() {
+        File output = projectChooser().showSaveDialog(null);
+
+        if (output == null) {
+            return;
+        }
+
+        // the snapshot holds copies: the chains can be edited while it is written
+        ProjectData project = ProjectSnapshot.capture(UtilsKt.getChains(), imageReference());
+
+        CompletableFuture.runAsync(() -> {
+            try {
+                ProjectFile.write(output.toPath(), project);
+                log.info("Project saved to " + output.getAbsolutePath());
+            } catch (IOException e) {
+                log.severe("Cannot save the project: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Replace the chains with the ones of a project file, opening the image it refers to
+     */
+    @FXML
+    void openProject() {
+        File file = projectChooser().showOpenDialog(null);
+
+        if (file == null) {
+            return;
+        }
+
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return ProjectFile.read(file.toPath());
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }).whenComplete((project, error) -> Platform.runLater(() -> {
+            if (error != null) {
+                log.severe("Cannot open the project " + file + ": " + error.getMessage());
+            } else {
+                showProject(project);
+            }
+        }));
+    }
+
+    /**
+     * Write all the angle measures to a CSV or JSON file, chosen by its extension
+     */
+    @FXML
+    void exportMeasures() {
+        FileChooser fileChooser = new FileChooser();
+        Map<ExtensionFilter, MeasureExport.Format> filterFormats = new HashMap<>();
+
+        for (MeasureExport.Format format : MeasureExport.Format.values()) {
+            ExtensionFilter filter = new ExtensionFilter(format.name(), "*." + format.getExtension());
+            filterFormats.put(filter, format);
+            fileChooser.getExtensionFilters().add(filter);
+        }
+
+        File selected = fileChooser.showSaveDialog(null);
+
+        if (selected == null) {
+            return;
+        }
+
+        // an extension typed by the user wins, otherwise the selected filter decides the format and the extension
+        MeasureExport.Format typed = MeasureExport.Format.byExtension(selected.toPath());
+        MeasureExport.Format format = typed != null ? typed
+                : filterFormats.getOrDefault(fileChooser.getSelectedExtensionFilter(), MeasureExport.Format.CSV);
+        File output = typed != null ? selected : new File(selected.getPath() + "." + format.getExtension());
+
+        // the rows are captured now, and formatted while the user goes on measuring
+        MeasureExport.Snapshot snapshot = MeasureExport.capture(UtilsKt.getChains());
+
+        CompletableFuture.runAsync(() -> {
+            try {
+                MeasureExport.write(snapshot, output.toPath(), format);
+                log.info(snapshot.getSize() + " measures exported to " + output.getAbsolutePath());
+            } catch (IOException e) {
+                log.severe("Cannot export the measures: " + e.getMessage());
+            }
+        });
+    }
+
+    private void showProject(ProjectData project) {
+        Selection.INSTANCE.clear();
+        UtilsKt.getChains().forEach(DotChain::dispose);
+        UtilsKt.getChains().clear();
+
+        // the actions in the history refer to the replaced chains
+        CommandManager.INSTANCE.clear();
+
+        List<DotChain> restored = ProjectSnapshot.restore(project, container);
+        UtilsKt.getChains().addAll(restored);
+
+        if (!restored.isEmpty()) {
+            chain = restored.get(0);
+            UtilsKt.setChain(chain);
+        }
+
+        if (project.getImage() != null) {
+            openImageReference(project.getImage());
+        }
+
+        // the records of the replaced chains are useless from now on
+        Journal.checkpoint();
+
+        log.info("Project loaded: " + restored.size() + " chains");
+    }
+
+    /**
+     * The reference to the displayed image, with the region and the viewport it is cropped to
+     */
+    private ImageReference imageReference() {
+        if (imageFile == null) {
+            return null;
+        }
+
+        int[] region = null;
+
+        if (decodedRegion != null) {
+            region = new int[]{decodedRegion.x, decodedRegion.y, decodedRegion.width, decodedRegion.height};
+        }
+
+        double[] viewport = null;
+        Rectangle2D current = imageView.getViewport();
+
+        if (tiledImage == null && current != null) {
+            viewport = new double[]{current.getMinX(), current.getMinY(), current.getWidth(), current.getHeight()};
+        }
+
+        return new ImageReference(imageFile.getAbsolutePath(), region, regionSubsampling, viewport);
+    }
+
+    private void openImageReference(ImageReference reference) {
+        File file = new File(reference.getPath());
+
+        if (!file.isFile()) {
+            log.warning("The project image " + file + " doesn't exist anymore");
+            return;
+        }
+
+        int[] region = reference.getRegion();
+
+        if (region == null) {
+            loadImage(file, reference.getViewport());
+            return;
+        }
+
+        // a cropped image is decoded again from the original file
+        cancelImageLoading();
+
+        java.awt.Rectangle area = new java.awt.Rectangle(region[0], region[1], region[2], region[3]);
+        int subsampling = reference.getSubsampling();
+
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return ImageCrop.decodeRegion(file, area, subsampling);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }).whenComplete((cropped, error) -> Platform.runLater(() -> {
+            if (error != null) {
+                log.severe("Cannot open " + file + ": " + error.getMessage());
+            } else {
+                imageFile = file;
+                zoomValue.set(1.0);
+                showCroppedImage(cropped, area, subsampling);
+                showViewport(reference.getViewport());
+            }
+        }));
     }
 
     @FXML
@@ -258,6 +619,12 @@ public class ImageProtractor implements Initializable {
         CommandManager.INSTANCE.undo();
     }
 
+    @FXML
+    void redo() {
+        log.fine("Redo");
+        CommandManager.INSTANCE.redo();
+    }
+
     @FXML
     void increaseOpacity() {
         if (backgroundOpacity <= 90) {
@@ -280,28 +647,54 @@ public class ImageProtractor implements Initializable {
             log.fine("Cannot reduce opacity, because it has reached its minimum value");
     }
 
+    /**
+     * The screen area captured by the screenshots: the whole screen, except the top menu bar
+     */
+    private java.awt.Rectangle screenshotArea() {
+        Dimension screenSize = Toolkit.getDefaultToolkit().getScreenSize();
+
+        return new java.awt.Rectangle(
+                0,
+                (int) menuBar.getHeight(),
+                (int) screenSize.getWidth(),
+                (int) (screenSize.height - menuBar.getHeight())
+        );
+    }
+
     @FXML
-    void takeScreenshot() throws AWTException {
-        try {
-            String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
-            Dimension screenSize = Toolkit.getDefaultToolkit().getScreenSize();
-            File output = new File(UtilsKt.SNAPSHOT_DIR, "screenshot_" + timestamp + ".jpg");
-
-            // exclude from the area the top menu bar
-            java.awt.Rectangle screenshotArea = new java.awt.Rectangle(
-                    0,
-                    (int) menuBar.getHeight(),
-                    (int) screenSize.getWidth(),
-                    (int) (screenSize.height - menuBar.getHeight())
-            );
+    void takeScreenshot() {
+        ScreenshotService.capture(screenshotArea());
+    }
 
-            Robot robot = new Robot();
-            BufferedImage screenCapture = robot.createScreenCapture(screenshotArea);
-            ImageIO.write(screenCapture, "jpg", output);
+    @FXML
+    void takeScreenshotBurst() {
+        ScreenshotService.burst(screenshotArea(), SCREENSHOT_BURST_SIZE, SCREENSHOT_BURST_INTERVAL);
+    }
 
-            log.info("Screenshot taken and saved to " + output.getAbsolutePath());
-        } catch (IOException e) {
-            log.severe(e.getMessage());
+    @FXML
+    void toggleTimedScreenshots() {
+        if (ScreenshotService.isTimedCaptureRunning()) {
+            ScreenshotService.stopTimedCapture();
+            log.info("Timed screenshots stopped");
+        } else {
+            ScreenshotService.startTimedCapture(screenshotArea(), SCREENSHOT_TIMED_INTERVAL);
+            log.info("Timed screenshots started");
+        }
+    }
+
+    @FXML
+    void chooseScreenshotDirectory() {
+        DirectoryChooser chooser = new DirectoryChooser();
+        File current = ScreenshotService.INSTANCE.getDirectory();
+
+        if (current.isDirectory()) {
+            chooser.setInitialDirectory(current);
+        }
+
+        File directory = chooser.showDialog(null);
+
+        if (directory != null) {
+            ScreenshotService.INSTANCE.setDirectory(directory);
         }
     }
 
@@ -336,23 +729,134 @@ public class ImageProtractor implements Initializable {
         fileChooser.getExtensionFilters().addAll(jpegFilter, pngFilter);
         fileChooser.setSelectedExtensionFilter(jpegFilter);
 
-        imageFile = fileChooser.showOpenDialog(null);
+        File file = fileChooser.showOpenDialog(null);
 
-        if (imageFile != null) {
-            try {
-                zoomValue.set(1.0);
+        if (file != null) {
+            loadImage(file, null);
+        }
+    }
 
-                image = new Image(new FileInputStream(imageFile));
+    /**
+     * Open the image [file], showing the [viewport] of it once decoded, if not `null`
+     */
+    private void loadImage(File file, double[] viewport) {
+        try {
+            cancelImageLoading();
 
-                imageView.setImage(image);
-                imageView.setViewport(new Rectangle2D(0, 0, image.getWidth(), image.getHeight()));
-                imageView.setFitWidth(image.getWidth());
-                imageView.setFitHeight(image.getHeight());
+            // read only the header, to choose how to display the image
+            TileSource source = new TileSource(file);
 
-                System.out.println("Image(" + image.getWidth() + ", " + image.getHeight() + ")");
-            } catch (FileNotFoundException e) {
-                e.printStackTrace();
+            if (TiledImageView.requiresTiling(source.getWidth(), source.getHeight())) {
+                imageFile = file;
+                resetImageRegion();
+                zoomValue.set(1.0);
+                disposeTiledImage();
+                showTiledImage(source);
+                return;
             }
+
+            source.close();
+
+            // the current image stays displayed, and the chains usable, until the new one is decoded
+            imageLoading = new ImageLoading(file, loaded -> {
+                showImage(file, loaded);
+                showViewport(viewport);
+                return Unit.INSTANCE;
+            }, e -> {
+                hideLoadingProgress();
+                log.severe("Cannot open " + file + ": " + (e != null ? e.getMessage() : "unknown error"));
+                return Unit.INSTANCE;
+            });
+
+            if (!imageLoading.getFinished()) {
+                loadingProgress.progressProperty().bind(imageLoading.progressProperty());
+                loadingBox.setManaged(true);
+                loadingBox.setVisible(true);
+            }
+        } catch (IOException e) {
+            log.severe("Cannot open " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Display only the [viewport] of the image, keeping its scale. Nothing is done if it is `null`.
+     */
+    private void showViewport(double[] viewport) {
+        if (viewport == null || image == null) {
+            return;
+        }
+
+        imageView.setViewport(new Rectangle2D(viewport[0], viewport[1], viewport[2], viewport[3]));
+        imageView.setFitWidth(viewport[2]);
+        imageView.setFitHeight(viewport[3]);
+    }
+
+    /**
+     * Replace the displayed image with the decoded [loaded] one, in a single step
+     */
+    private void showImage(File file, Image loaded) {
+        imageLoading = null;
+        hideLoadingProgress();
+        disposeTiledImage();
+        zoomValue.set(1.0);
+
+        imageFile = file;
+        image = loaded;
+        resetImageRegion();
+
+        imageView.setImage(image);
+        imageView.setViewport(new Rectangle2D(0, 0, image.getWidth(), image.getHeight()));
+        imageView.setFitWidth(image.getWidth());
+        imageView.setFitHeight(image.getHeight());
+        imageScrollPane.setContent(imageView);
+
+        log.info("Image " + image.getWidth() + "x" + image.getHeight() + " loaded from " + file);
+
+        // the image reference is saved only by the checkpoints
+        Journal.checkpoint();
+    }
+
+    /**
+     * Stop the decoding of the image being opened, keeping the displayed one
+     */
+    @FXML
+    void cancelImageLoading() {
+        if (imageLoading != null) {
+            imageLoading.cancel();
+            imageLoading = null;
+        }
+
+        hideLoadingProgress();
+    }
+
+    private void hideLoadingProgress() {
+        loadingProgress.progressProperty().unbind();
+        loadingBox.setVisible(false);
+        loadingBox.setManaged(false);
+    }
+
+    /**
+     * Display the image of the [source] by tiles, taken from a multi-resolution pyramid
+     */
+    private void showTiledImage(TileSource source) {
+        log.info("Image " + source.getWidth() + "x" + source.getHeight() + " displayed by tiles");
+
+        image = null;
+        imageView.setImage(null);
+
+        tiledImage = new TiledImageView(source, TileCache.DEFAULT_BUDGET);
+        tiledImage.zoomProperty().bind(zoomValue);
+        imageScrollPane.setContent(tiledImage);
+        tiledImage.follow(imageScrollPane);
+
+        Journal.checkpoint();
+    }
+
+    private void disposeTiledImage() {
+        if (tiledImage != null) {
+            tiledImage.zoomProperty().unbind();
+            tiledImage.dispose();
+            tiledImage = null;
         }
     }
 
@@ -423,8 +927,8 @@ public class ImageProtractor implements Initializable {
     }
 
     public static double getImageScalingFactor(ImageView imageView) {
-        double scaleX = imageView.getFitWidth() / imageView.getViewport().getMaxX();
-        double scaleY = imageView.getFitHeight() / imageView.getViewport().getMaxY();
+        double scaleX = imageView.getFitWidth() / imageView.getViewport().getWidth();
+        double scaleY = imageView.getFitHeight() / imageView.getViewport().getHeight();
 
         return Math.min(scaleX, scaleY);
     }
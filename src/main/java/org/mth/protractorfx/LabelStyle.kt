@@ -0,0 +1,38 @@
+package org.mth.protractorfx
+
+import javafx.scene.paint.Color
+import javafx.scene.text.Font
+import javafx.scene.text.FontWeight
+
+/**
+ * Immutable appearance of the measure labels of a chain. A single instance is shared by all the labels of the chain,
+ * and a new one is built only when one of the chain label properties changes.
+ */
+data class LabelStyle(
+    val font: Font,
+    val fontColor: Color,
+    val backgroundColor: Color,
+    val backgroundVisible: Boolean,
+) {
+    /**
+     * The color actually painted behind the text
+     */
+    val backgroundFill: Color get() = if (backgroundVisible) backgroundColor else Color.TRANSPARENT
+
+    companion object {
+
+        @JvmStatic
+        fun of(
+            fontSize: Double,
+            fontWeight: FontWeight,
+            fontColor: Color,
+            backgroundColor: Color,
+            backgroundVisible: Boolean,
+        ) = LabelStyle(
+            Font.font(Font.getDefault().family, fontWeight, fontSize),
+            fontColor,
+            backgroundColor,
+            backgroundVisible
+        )
+    }
+}
@@ -60,7 +60,7 @@ class MeasureLabelMenu : Initializable {
     fun removeMeasure() {
         checkDot().ifPresent { dot ->
             val decorator = dot.angleDecorators.first { it.angleLabel == menu.ownerNode }
-            decorator.dispose(dot.parent as Pane)
+            decorator.dispose(pane)
             dot.angleDecorators.remove(decorator)
         }
     }
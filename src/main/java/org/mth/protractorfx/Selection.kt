@@ -4,56 +4,125 @@ import java.util.*
 
 object Selection : Iterable<Dot> {
 
+    /**
+     * Listener notified once for every change of the selection, with the dots added to and removed from it.
+     */
+    fun interface ChangeListener {
+        fun selectionChanged(added: Collection<Dot>, removed: Collection<Dot>)
+    }
+
+    private val dots = LinkedHashSet<Dot>()
+    private val listeners = mutableListOf<ChangeListener>()
+
+    // changes collected while a batch is open, notified when the outermost batch ends
+    private val added = LinkedHashSet<Dot>()
+    private val removed = LinkedHashSet<Dot>()
+    private var batchDepth = 0
+
+    /**
+     * The dot the user acted on last, pressed or selected. It stands for the keyboard focus, that the dots drawn on a
+     * canvas never get, since they aren't in the scene.
+     */
+    private var current: Dot? = null
+
     /**
      * The number of dots actually selected
      */
-    val size: Int get() = selectedDots().size
+    val size: Int get() = dots.size
 
-    fun isEmpty() = size == 0
+    fun isEmpty() = dots.isEmpty()
+
+    operator fun contains(dot: Dot) = dots.contains(dot)
+
+    fun addListener(listener: ChangeListener) = listeners.add(listener)
+
+    fun removeListener(listener: ChangeListener) = listeners.remove(listener)
+
+    /**
+     * Execute the [block] notifying the listeners only once, at the end, with all the changes it produced.
+     */
+    fun <T> batch(block: () -> T): T {
+        batchDepth++
+
+        try {
+            return block()
+        } finally {
+            batchDepth--
+
+            if (batchDepth == 0)
+                fireChange()
+        }
+    }
 
     /**
      * Select the [dot], clearing all other previous selected nodes
      */
-    fun select(dot: Dot) {
+    fun select(dot: Dot) = batch {
         clear()
         addToSelection(dot)
+        current = dot
+    }
+
+    /**
+     * Make the [dot] the current one, returned by [selectedDot] while it is selected.
+     */
+    fun setCurrent(dot: Dot) {
+        current = dot
     }
 
     /**
      * Remove the [dot] from the selection
      */
-    fun unselect(dot: Dot) {
-        dot.selected = false
+    fun unselect(dot: Dot) = batch {
+        if (dots.remove(dot)) {
+            dot.selected = false
+            changed(dot, false)
+        }
+
+        if (current === dot)
+            current = null
     }
 
     /**
      * Add the [dot] to the selection, maintaining the previously selected dots.
      */
-    fun addToSelection(dot: Dot) {
-        dot.selected = true
+    fun addToSelection(dot: Dot) = batch {
+        if (dots.add(dot)) {
+            dot.selected = true
+            changed(dot, true)
+        }
     }
 
     /**
      * Add to the selection all the dots belonging to the [dotChain], preserving the previously selected dots.
      */
-    fun addToSelection(dotChain: DotChain) {
-        dotChain.forEach { it.selected = true }
+    fun addToSelection(dotChain: DotChain) = batch {
+        dotChain.forEach { addToSelection(it) }
     }
 
     /**
-     * Remove all dots in the selection
+     * Remove all dots in the selection. Only the selected dots are touched.
      */
-    fun clear() {
-        chains.flatten().forEach {
+    fun clear() = batch {
+        dots.forEach {
             it.selected = false
+            changed(it, false)
         }
+
+        dots.clear()
+        current = null
     }
 
     /**
-     * Return the selected [Dot], if any. In the case that more than one dot is selected, the method returns the dot
-     * actually focused.
+     * Return the selected [Dot], if any. In the case that more than one dot is selected, the method returns the current
+     * one, pressed or selected last, or else the dot actually focused.
      */
     fun selectedDot(): Optional<Dot> {
+        current?.let {
+            if (dots.contains(it))
+                return Optional.of(it)
+        }
+
         for (dot in this) {
             if (dot.isFocused)
                 return Optional.of(dot)
@@ -63,9 +132,31 @@ object Selection : Iterable<Dot> {
     }
 
     /**
-     * Return a collection of the current selected dots
+     * Return a copy of the current selected dots, in order of selection
      */
-    fun selectedDots() = chains.flatten().filter { it.selected }
+    fun selectedDots(): List<Dot> = ArrayList(dots)
+
+    override fun iterator() = dots.iterator()
 
-    override fun iterator() = selectedDots().iterator()
-}
\ No newline at end of file
+    private fun changed(dot: Dot, selected: Boolean) {
+        if (selected) {
+            if (!removed.remove(dot))
+                added.add(dot)
+        } else {
+            if (!added.remove(dot))
+                removed.add(dot)
+        }
+    }
+
+    private fun fireChange() {
+        if (added.isEmpty() && removed.isEmpty())
+            return
+
+        val addedDots = ArrayList(added)
+        val removedDots = ArrayList(removed)
+        added.clear()
+        removed.clear()
+
+        listeners.forEach { it.selectionChanged(addedDots, removedDots) }
+    }
+}
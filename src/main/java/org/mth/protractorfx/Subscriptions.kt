@@ -0,0 +1,78 @@
+package org.mth.protractorfx
+
+import javafx.beans.InvalidationListener
+import javafx.beans.Observable
+import javafx.beans.WeakInvalidationListener
+import javafx.beans.property.Property
+import javafx.beans.property.ReadOnlyIntegerProperty
+import javafx.beans.property.ReadOnlyIntegerWrapper
+import javafx.beans.value.ObservableValue
+
+/**
+ * Registry of the listeners and bindings created by a single owner. Everything registered here is removed by
+ * [dispose], that the owner calls at the end of its lifecycle.
+ *
+ * Listeners added to long-lived observables (e.g. global properties) can be registered as *weak*: the observable then
+ * references them only weakly, and the strong reference is kept by this registry, so that an owner never disposed can
+ * still be collected.
+ */
+class Subscriptions {
+
+    private val cancellations = mutableListOf<Runnable>()
+
+    // strong references to the listeners registered as weak
+    private val retained = mutableListOf<Any>()
+
+    /**
+     * The number of listeners and bindings registered by this owner and not yet removed
+     */
+    val size: Int get() = cancellations.size
+
+    /**
+     * Add an [InvalidationListener] to the [observable].
+     * @param weak If `true` the observable keeps only a weak reference to the listener
+     */
+    fun listen(observable: Observable, weak: Boolean = false, listener: InvalidationListener) {
+        val registered = if (weak) {
+            retained.add(listener)
+            WeakInvalidationListener(listener)
+        } else listener
+
+        observable.addListener(registered)
+        register { observable.removeListener(registered) }
+    }
+
+    /**
+     * Bind the [target] property to the [source] observable.
+     */
+    fun <T> bind(target: Property<T>, source: ObservableValue<out T>) {
+        target.bind(source)
+        register { target.unbind() }
+    }
+
+    /**
+     * Remove all the listeners and bindings registered so far.
+     */
+    fun dispose() {
+        cancellations.forEach { it.run() }
+        active.set(active.get() - cancellations.size)
+        cancellations.clear()
+        retained.clear()
+    }
+
+    private fun register(cancellation: Runnable) {
+        cancellations.add(cancellation)
+        active.set(active.get() + 1)
+    }
+
+    companion object {
+
+        private val active = ReadOnlyIntegerWrapper(0)
+
+        /**
+         * The live number of listeners and bindings registered, by all the owners, and not yet removed
+         */
+        @JvmStatic
+        val activeCount: ReadOnlyIntegerProperty = active.readOnlyProperty
+    }
+}
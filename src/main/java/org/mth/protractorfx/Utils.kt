@@ -24,12 +24,13 @@ import javafx.scene.transform.Translate
 import javafx.stage.Stage
 import org.mth.protractorfx.command.Action
 import org.mth.protractorfx.command.CommandManager
+import org.mth.protractorfx.geometry.Geometry
+import org.mth.protractorfx.geometry.Geometry.X
+import org.mth.protractorfx.geometry.Geometry.Y
 import org.mth.protractorfx.tool.MeasureUnit
 import org.mth.protractorfx.tool.MeasureUnit.*
 import java.io.File
 import java.util.*
-import kotlin.math.PI
-import kotlin.math.atan2
 import kotlin.math.cos
 import kotlin.math.sin
 import kotlin.reflect.KProperty
@@ -95,54 +96,19 @@ val MEASURE_UNIT: MeasureUnit
     get() = measureUnitProperty.value
 
 /**
- * Find the node in the collection with the minim distance from the given [point].
+ * Find the node, among all the chains, with the minimum distance from the given [point].
  * @param excludeLeaves If `true` the nodes with only one incoming connections (leaves) are ignored from the search
+ * @return `null` if there isn't any node
  */
-fun getNearestDot(point: Point2D, points: Collection<Dot>, excludeLeaves: Boolean = false): Dot {
-    var nearestDot: Dot? = null
-    var minDistance: Double = Double.MAX_VALUE
-    var currentDistance: Double
-
-    points.forEach { dot ->
-        if (!(excludeLeaves && dot.isLeaf())) {
-            currentDistance = point.distance(dot.getCenter())
-
-            if (currentDistance < minDistance) {
-                minDistance = currentDistance
-                nearestDot = dot
-            }
-        }
-    }
-
-    return nearestDot!!
-}
+fun getNearestDot(point: Point2D, excludeLeaves: Boolean = false): Dot? =
+    DotIndex.nearest(point.x, point.y, excludeLeaves)
 
 /**
  * Measure the angle between the two vectors [p1] and [p2]. The angle is measured **clockwise**, starting from [p1]
  * going to [p2].
  */
-fun angleBetween(p1: Point2D, p2: Point2D, unit: MeasureUnit = DECIMAL_DEGREE, positive: Boolean = true): Double {
-    val dot = p1.x * p2.x + p1.y * p2.y
-    val det = p1.x * p2.y - p2.x * p1.y
-    var angle = atan2(det, dot) // radians
-
-    when (unit) {
-        DECIMAL_DEGREE -> {
-            angle = Math.toDegrees(angle)
-
-            // put angle measure in range [0,360]
-            if (positive && angle < 0)
-                angle += 360
-        }
-        RADIANS -> {
-            if (positive && angle < 0)
-                angle += 2 * PI
-        }
-        CENTESIMAL_DEGREE, SEXAGESIMAL_DEGREES -> throw IllegalArgumentException()
-    }
-
-    return angle
-}
+fun angleBetween(p1: Point2D, p2: Point2D, unit: MeasureUnit = DECIMAL_DEGREE, positive: Boolean = true) =
+    Geometry.angleBetween(p1.x, p1.y, p2.x, p2.y, unit, positive)
 
 fun defaultColors() = listOf(
     Color.BLACK,
@@ -206,7 +172,8 @@ infix fun Point2D.sub(vector: Point2D): Point2D = this.subtract(vector)
  * @param direction If you want a clockwise rotation pass the value +1, otherwise -1 produces a counterclockwise rotation.
  * By default, the rotation is clockwise.
  */
-fun Point2D.orthogonal(direction: Byte = +1) = this.normalize().rotate(direction * PI / 2)
+fun Point2D.orthogonal(direction: Byte = +1): Point2D =
+    Geometry.orthogonal(x, y, direction.toInt(), Geometry.vector()).let { Point2D(it[X], it[Y]) }
 
 fun runLater(runnable: Runnable) = Platform.runLater(runnable)
 
@@ -4,4 +4,35 @@ interface Action {
     fun execute():Boolean
     fun undo()
     val name: String
-}
\ No newline at end of file
+}
+
+/**
+ * An [Action] that can't be redone by executing it again, for example because it records a change already made by the
+ * user, as a drag.
+ */
+interface Redoable {
+    fun redo()
+}
+
+/**
+ * An [Action] able to absorb the next one executed, so that a sequence of small changes is undone in a single step.
+ */
+interface Coalescing {
+
+    /**
+     * Merge the [next] action, already executed, into this one.
+     * @return `false` if the actions can't be merged
+     */
+    fun coalesce(next: Action): Boolean
+}
+
+/**
+ * An [Action] whose memory footprint depends on the data it holds.
+ */
+interface Sized {
+
+    /**
+     * Estimate of the memory retained by the action, in bytes
+     */
+    val sizeInBytes: Long
+}
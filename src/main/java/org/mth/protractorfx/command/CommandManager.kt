@@ -1,60 +1,267 @@
 package org.mth.protractorfx.command
 
+import org.mth.protractorfx.FrameScheduler
 import org.mth.protractorfx.log.LogFactory
-import java.util.*
-import java.util.function.Consumer
 
 
+/**
+ * History of the executed actions, for undo and redo. The actions are kept in a ring buffer of fixed capacity: the
+ * undoable ones, followed by the undone ones that can be redone. Executing a new action discards the latter.
+ *
+ * The oldest actions are dropped when the buffer is full, or when the actions retain more than [MAX_HISTORY_BYTES].
+ * A [Coalescing] action absorbs the ones executed after it within [COALESCE_WINDOW] milliseconds.
+ *
+ * The actions executed between [begin] and [commit] form a transaction: they enter the history as a single
+ * [CompositeAction], and the angle measures they touch are recomputed once, on commit.
+ */
 object CommandManager {
 
     private val log = LogFactory.configureLog(CommandManager::class.java)
-    private val queueStackNormal: QueueStack<List<Action>> = QueueStack()
 
-    private val queueStackReverse: QueueStack<List<Action>> = QueueStack()
+    const val MAX_HISTORY_SIZE = 100
 
-    var MAX_HISTORY_SIZE = 100
-    val actionHistory = LinkedList<Action>()
+    /**
+     * Memory budget of the history, in bytes
+     */
+    const val MAX_HISTORY_BYTES = 16L shl 20
 
+    /**
+     * Maximum time between two actions merged by a [Coalescing] action, in milliseconds
+     */
+    const val COALESCE_WINDOW = 1000L
+
+    /**
+     * Size assumed for the actions not implementing [Sized]
+     */
+    const val DEFAULT_ACTION_SIZE = 128L
+
+    private val actions = arrayOfNulls<Action>(MAX_HISTORY_SIZE)
+    private val sizes = LongArray(MAX_HISTORY_SIZE)
+
+    private var first = 0 // slot of the oldest action
+    private var count = 0 // actions in the buffer, undoable and redoable
+    private var cursor = 0 // undoable actions: the ones from cursor to count can be redone
+    private var bytes = 0L
+
+    /**
+     * Time of the last action executed, or merged; zero if the next one must not be merged
+     */
+    private var lastTime = 0L
+
+    // actions of the open transaction, null if none is open
+    private var transaction: ArrayList<Action>? = null
+    private var transactionName = ""
+    private var transactionDepth = 0
+
+    /**
+     * The actions that can be undone, from the most recent one
+     */
+    val actionHistory: List<Action> get() = (cursor - 1 downTo 0).map { at(it) }
+
+    fun canUndo() = cursor > 0
+
+    fun canRedo() = cursor < count
+
+    /**
+     * Execute the [actions], pushing the successful ones to the history. Several actions are executed as a transaction,
+     * and undone together.
+     */
     fun execute(vararg actions: Action) {
+        if (actions.size > 1 && transaction == null) {
+            transaction(actions.joinToString("+") { it.name }) { execute(*actions) }
+            return
+        }
+
         actions.forEach {
             if (it.execute()) {
-                log.fine("Action ${it.name} successfully executed. Pushing it to history")
-                actionHistory.push(it)
+                val pending = transaction
 
-                if (actionHistory.size > MAX_HISTORY_SIZE) {
-                    val action = actionHistory.removeLast()
-                    log.fine("The maximum numbero of actions that can be stored has been reached. Deleting the oldest: ${action.name}")
+                if (pending != null)
+                    pending.add(it)
+                else {
+                    log.fine("Action ${it.name} successfully executed. Pushing it to history")
+                    push(it)
                 }
             }
         }
     }
 
-    fun undo() {
-        if (actionHistory.isNotEmpty()) {
-            val action = actionHistory.pop()
-            action.undo()
-            log.fine("Undoing " + action.name)
+    /**
+     * Open a transaction, or join the one already open. The [name] is the one of the composite action.
+     */
+    fun begin(name: String) {
+        if (transactionDepth++ > 0)
+            return
+
+        transaction = ArrayList()
+        transactionName = name
+        FrameScheduler.hold()
+
+        log.fine("Transaction $name started")
+    }
+
+    /**
+     * Close the innermost transaction. Closing the outermost one pushes its actions to the history and recomputes the
+     * angle measures.
+     */
+    fun commit() {
+        check(transactionDepth > 0) { "No open transaction" }
+
+        if (--transactionDepth > 0)
             return
+
+        val actions = transaction!!
+        transaction = null
+
+        try {
+            when (actions.size) {
+                0 -> log.fine("Transaction $transactionName is empty")
+                // a single action stays itself, so that it can still be coalesced
+                1 -> push(actions[0])
+                else -> push(CompositeAction(transactionName, actions))
+            }
+
+            log.fine("Transaction $transactionName committed with ${actions.size} actions")
+        } finally {
+            FrameScheduler.release()
+        }
+    }
+
+    /**
+     * Abort the outermost open transaction, undoing the actions executed in it.
+     */
+    fun rollback() {
+        val actions = transaction ?: return
+
+        transaction = null
+        transactionDepth = 0
+
+        try {
+            for (i in actions.indices.reversed())
+                actions[i].undo()
+
+            log.fine("Transaction $transactionName rolled back")
+        } finally {
+            FrameScheduler.release()
         }
     }
 
+    /**
+     * Execute the [block] in a transaction, rolled back if the block fails.
+     */
+    fun <T> transaction(name: String, block: () -> T): T {
+        begin(name)
+
+        val result = try {
+            block()
+        } catch (e: Throwable) {
+            rollback()
+            throw e
+        }
+
+        commit()
+        return result
+    }
+
+    fun undo() {
+        if (cursor == 0 || transaction != null)
+            return
+
+        val action = at(--cursor)
+        action.undo()
+        lastTime = 0
+
+        log.fine("Undoing " + action.name)
+    }
+
     fun redo() {
-        val optionalActions = queueStackReverse.pop()
-        optionalActions.ifPresent { aList: List<Action> ->
-            aList.forEach(Consumer { obj: Action -> obj.execute() })
-            queueStackNormal.push(aList)
-//            aList.forEach(Consumer { a: Action ->
-//                actionHistory.add(a.name + " - redo")
-//            })
+        if (cursor == count || transaction != null)
+            return
+
+        val action = at(cursor)
+
+        if (action is Redoable)
+            action.redo()
+        else if (!action.execute()) {
+            // the action doesn't apply anymore, nor the ones after it
+            log.fine("Cannot redo ${action.name}")
+            discardFrom(cursor)
+            return
         }
+
+        cursor++
+        lastTime = 0
+
+        log.fine("Redoing " + action.name)
     }
 
-    fun clearNormal() {
-        queueStackNormal.clear()
+    /**
+     * Forget all the actions.
+     */
+    fun clear() {
+        discardFrom(0)
+        lastTime = 0
     }
 
-    fun clearReverse() {
-        queueStackReverse.clear()
+    private fun push(action: Action) {
+        discardFrom(cursor)
+
+        val now = System.currentTimeMillis()
+        val last = if (cursor > 0) at(cursor - 1) else null
+
+        if (last is Coalescing && now - lastTime <= COALESCE_WINDOW && last.coalesce(action)) {
+            val slot = slot(cursor - 1)
+            bytes += sizeOf(last) - sizes[slot]
+            sizes[slot] = sizeOf(last)
+            lastTime = now
+
+            log.fine("Action ${action.name} merged into ${last.name}")
+            return
+        }
+
+        if (count == MAX_HISTORY_SIZE)
+            dropOldest()
+
+        val slot = slot(count)
+        actions[slot] = action
+        sizes[slot] = sizeOf(action)
+        bytes += sizes[slot]
+        count++
+        cursor = count
+        lastTime = now
+
+        while (bytes > MAX_HISTORY_BYTES && count > 1)
+            dropOldest()
     }
 
-}
\ No newline at end of file
+    private fun dropOldest() {
+        val action = actions[first]
+        log.fine("The history is full. Deleting the oldest action: ${action?.name}")
+
+        bytes -= sizes[first]
+        actions[first] = null
+        first = (first + 1) % MAX_HISTORY_SIZE
+        count--
+        cursor = maxOf(0, cursor - 1)
+    }
+
+    /**
+     * Remove the actions from the [index]-th one to the most recent.
+     */
+    private fun discardFrom(index: Int) {
+        for (i in index until count) {
+            val slot = slot(i)
+            bytes -= sizes[slot]
+            actions[slot] = null
+        }
+
+        count = minOf(count, index)
+        cursor = minOf(cursor, count)
+    }
+
+    private fun at(index: Int) = actions[slot(index)]!!
+
+    private fun slot(index: Int) = (first + index) % MAX_HISTORY_SIZE
+
+    private fun sizeOf(action: Action) = (action as? Sized)?.sizeInBytes ?: DEFAULT_ACTION_SIZE
+}
@@ -0,0 +1,34 @@
+package org.mth.protractorfx.command
+
+import org.mth.protractorfx.FrameScheduler
+
+/**
+ * A group of actions, already executed inside a transaction, undone and redone as a single step. The actions are undone
+ * in reverse order; the angle measures they touch are recomputed once, at the end of the whole group.
+ */
+class CompositeAction(override val name: String, private val actions: List<Action>) : Action, Redoable, Sized {
+
+    val size: Int get() = actions.size
+
+    /**
+     * The actions have been executed one by one when the transaction was open.
+     */
+    override fun execute() = actions.isNotEmpty()
+
+    override fun undo() = FrameScheduler.deferred {
+        for (i in actions.indices.reversed())
+            actions[i].undo()
+    }
+
+    override fun redo() = FrameScheduler.deferred {
+        actions.forEach {
+            if (it is Redoable)
+                it.redo()
+            else
+                it.execute()
+        }
+    }
+
+    override val sizeInBytes: Long
+        get() = actions.sumOf { (it as? Sized)?.sizeInBytes ?: CommandManager.DEFAULT_ACTION_SIZE }
+}
@@ -0,0 +1,179 @@
+package org.mth.protractorfx.geometry
+
+import org.mth.protractorfx.tool.MeasureUnit
+import org.mth.protractorfx.tool.MeasureUnit.*
+import kotlin.math.*
+
+/**
+ * Geometry kernel working only on primitive doubles. None of the functions allocates: the ones producing a vector write
+ * its components into a caller-supplied `out` buffer, at the indices [X] and [Y], and return the same buffer.
+ *
+ * The kernel doesn't depend on the JavaFX toolkit, so it can be used without a running `Stage`.
+ */
+object Geometry {
+
+    /**
+     * Index of the horizontal component in a vector buffer
+     */
+    const val X = 0
+
+    /**
+     * Index of the vertical component in a vector buffer
+     */
+    const val Y = 1
+
+    /**
+     * Create a new buffer able to hold a two-dimensional vector.
+     */
+    @JvmStatic
+    fun vector() = DoubleArray(2)
+
+    /**
+     * Measure the angle between the two vectors (x1, y1) and (x2, y2). The angle is measured **clockwise**, starting
+     * from the first vector going to the second one.
+     * @param positive If `true` the measure is put in the range [0, 360] (or [0, 2π] for radians)
+     */
+    @JvmStatic
+    fun angleBetween(
+        x1: Double,
+        y1: Double,
+        x2: Double,
+        y2: Double,
+        unit: MeasureUnit = DECIMAL_DEGREE,
+        positive: Boolean = true,
+    ): Double {
+        val dot = x1 * x2 + y1 * y2
+        val det = x1 * y2 - x2 * y1
+        var angle = atan2(det, dot) // radians
+
+        when (unit) {
+            DECIMAL_DEGREE -> {
+                angle = Math.toDegrees(angle)
+
+                // put angle measure in range [0,360]
+                if (positive && angle < 0)
+                    angle += 360
+            }
+            RADIANS -> {
+                if (positive && angle < 0)
+                    angle += 2 * PI
+            }
+            CENTESIMAL_DEGREE, SEXAGESIMAL_DEGREES -> throw IllegalArgumentException()
+        }
+
+        return angle
+    }
+
+    /**
+     * Rotate clockwise the vector (x, y) by the angle [alpha], expressed in **radians**.
+     */
+    @JvmStatic
+    fun rotate(x: Double, y: Double, alpha: Double, out: DoubleArray): DoubleArray {
+        val cos = cos(alpha)
+        val sin = sin(alpha)
+
+        out[X] = x * cos - y * sin
+        out[Y] = x * sin + y * cos
+
+        return out
+    }
+
+    /**
+     * Rotate clockwise the point (x, y) around the center (cx, cy) by the angle [alpha], expressed in **radians**.
+     */
+    @JvmStatic
+    fun rotateAround(x: Double, y: Double, cx: Double, cy: Double, alpha: Double, out: DoubleArray): DoubleArray {
+        rotate(x - cx, y - cy, alpha, out)
+        out[X] += cx
+        out[Y] += cy
+
+        return out
+    }
+
+    /**
+     * Normalize the vector (x, y). The null vector is left unchanged.
+     */
+    @JvmStatic
+    fun normalize(x: Double, y: Double, out: DoubleArray): DoubleArray {
+        val magnitude = hypot(x, y)
+
+        if (magnitude == 0.0) {
+            out[X] = .0
+            out[Y] = .0
+        } else {
+            out[X] = x / magnitude
+            out[Y] = y / magnitude
+        }
+
+        return out
+    }
+
+    /**
+     * Compute the versor orthogonal to the vector (x, y).
+     * @param direction If you want a clockwise rotation pass the value +1, otherwise -1 produces a counterclockwise
+     * rotation.
+     */
+    @JvmStatic
+    fun orthogonal(x: Double, y: Double, direction: Int, out: DoubleArray): DoubleArray {
+        normalize(x, y, out)
+
+        // a rotation of ±π/2 simply swaps the components
+        val ox = out[X]
+        out[X] = -direction * out[Y]
+        out[Y] = direction * ox
+
+        return out
+    }
+
+    /**
+     * Compute the versor lying along the bisector of the angle between the two sides (l1x, l1y) and (l2x, l2y). The
+     * angle is the one measured clockwise from the second side to the first one.
+     */
+    @JvmStatic
+    fun bisector(l1x: Double, l1y: Double, l2x: Double, l2y: Double, out: DoubleArray): DoubleArray {
+        val alpha = -angleBetween(l2x, l2y, l1x, l1y, RADIANS) / 2
+
+        normalize(l1x, l1y, out)
+        return rotate(out[X], out[Y], alpha, out)
+    }
+
+    /**
+     * Compute the barycenter of the first [count] points, whose coordinates are stored in [xs] and [ys].
+     * @param include If not `null`, only the points whose flag is set are taken into account
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun barycenter(
+        xs: DoubleArray,
+        ys: DoubleArray,
+        count: Int,
+        out: DoubleArray,
+        include: BooleanArray? = null,
+    ): DoubleArray {
+        var x = 0.0
+        var y = 0.0
+        var n = 0
+
+        for (i in 0 until count) {
+            if (include == null || include[i]) {
+                x += xs[i]
+                y += ys[i]
+                n++
+            }
+        }
+
+        out[X] = x / n
+        out[Y] = y / n
+
+        return out
+    }
+
+    @JvmStatic
+    fun dot(x1: Double, y1: Double, x2: Double, y2: Double) = x1 * x2 + y1 * y2
+
+    @JvmStatic
+    fun magnitude(x: Double, y: Double) = hypot(x, y)
+
+    @JvmStatic
+    fun distance(x1: Double, y1: Double, x2: Double, y2: Double) = hypot(x2 - x1, y2 - y1)
+}
@@ -0,0 +1,132 @@
+package org.mth.protractorfx.image
+
+import javafx.scene.image.PixelFormat
+import javafx.scene.image.WritableImage
+import java.awt.Rectangle
+import java.awt.image.BufferedImage
+import java.awt.image.DataBufferInt
+import java.io.File
+import java.io.IOException
+import java.nio.IntBuffer
+import javax.imageio.ImageIO
+
+/**
+ * Crop pipeline working in memory: only the cropped region of the file is decoded, and the result is displayed
+ * without being encoded again. The cropped image is written to disk only by an explicit [save].
+ */
+object ImageCrop {
+
+    /**
+     * Decode from the [file] only the pixels inside the [region], clipped to the image bounds.
+     * @param subsampling Keep one pixel every [subsampling] pixels, in both directions
+     */
+    @JvmStatic
+    @JvmOverloads
+    @Throws(IOException::class)
+    fun decodeRegion(file: File, region: Rectangle, subsampling: Int = 1): BufferedImage {
+        ImageIO.createImageInputStream(file).use { input ->
+            if (input == null)
+                throw IOException("Cannot read $file")
+
+            val readers = ImageIO.getImageReaders(input)
+
+            if (!readers.hasNext())
+                throw IOException("Unsupported image format: $file")
+
+            val reader = readers.next()
+
+            try {
+                reader.setInput(input, true, true)
+
+                val bounds = region.intersection(Rectangle(0, 0, reader.getWidth(0), reader.getHeight(0)))
+
+                if (bounds.isEmpty)
+                    throw IOException("The region $region is outside the image")
+
+                val param = reader.defaultReadParam.apply {
+                    sourceRegion = bounds
+                    setSourceSubsampling(subsampling, subsampling, 0, 0)
+                }
+
+                return reader.read(0, param)
+            } finally {
+                reader.dispose()
+            }
+        }
+    }
+
+    /**
+     * Return the smallest subsampling bringing a region of the given size within [maxSide] pixels per side.
+     */
+    @JvmStatic
+    fun subsamplingFor(width: Int, height: Int, maxSide: Int): Int {
+        var subsampling = 1
+
+        while (maxOf(width, height) / subsampling > maxSide)
+            subsampling++
+
+        return subsampling
+    }
+
+    /**
+     * Copy the [image] into a [WritableImage] with a single bulk write of its pixels. The image is converted to the
+     * premultiplied ARGB layout, the native one of the toolkit, if it doesn't use it already.
+     */
+    @JvmStatic
+    fun toWritableImage(image: BufferedImage): WritableImage {
+        val argb = toArgbPre(image)
+        val pixels = (argb.raster.dataBuffer as DataBufferInt).data
+        val writable = WritableImage(argb.width, argb.height)
+
+        writable.pixelWriter.setPixels(
+            0, 0, argb.width, argb.height,
+            PixelFormat.getIntArgbPreInstance(), IntBuffer.wrap(pixels), argb.width
+        )
+
+        return writable
+    }
+
+    /**
+     * Return the [image] with the premultiplied ARGB layout, copying it only if needed.
+     */
+    @JvmStatic
+    fun toArgbPre(image: BufferedImage): BufferedImage {
+        if (image.type == BufferedImage.TYPE_INT_ARGB_PRE)
+            return image
+
+        val converted = BufferedImage(image.width, image.height, BufferedImage.TYPE_INT_ARGB_PRE)
+        val graphics = converted.createGraphics()
+
+        try {
+            graphics.drawImage(image, 0, 0, null)
+        } finally {
+            graphics.dispose()
+        }
+
+        return converted
+    }
+
+    /**
+     * Write the [image] to the [file], in the format given by its extension (PNG if unknown).
+     */
+    @JvmStatic
+    @Throws(IOException::class)
+    fun save(image: BufferedImage, file: File) {
+        val format = when (file.extension.lowercase()) {
+            "jpg", "jpeg" -> "jpg"
+            "bmp" -> "bmp"
+            else -> "png"
+        }
+
+        // JPEG doesn't support the alpha channel
+        val output = if (format == "png") image else BufferedImage(image.width, image.height, BufferedImage.TYPE_INT_RGB)
+            .also {
+                val graphics = it.createGraphics()
+                graphics.drawImage(image, 0, 0, java.awt.Color.WHITE, null)
+                graphics.dispose()
+            }
+
+        if (!ImageIO.write(output, format, file))
+            throw IOException("No writer for the format $format")
+    }
+}
@@ -0,0 +1,72 @@
+package org.mth.protractorfx.image
+
+import javafx.beans.property.ReadOnlyDoubleProperty
+import javafx.scene.image.Image
+import org.mth.protractorfx.Subscriptions
+import java.io.File
+
+/**
+ * Decode an image [file] in background, through the JavaFX loader, reporting its progress. The image is delivered to
+ * [onLoaded], on the application thread, only when it is completely decoded, so that it can replace the displayed one
+ * at once. A cancelled loading delivers nothing.
+ */
+class ImageLoading(
+    val file: File,
+    private val onLoaded: (Image) -> Unit,
+    private val onFailed: (Exception?) -> Unit,
+) {
+    /**
+     * The image being loaded. The stream of the file is opened and closed by the loader.
+     */
+    private val image = Image(file.toURI().toString(), true)
+
+    private val subscriptions = Subscriptions()
+
+    /**
+     * `true` once the image has been delivered, the loading failed or it has been cancelled
+     */
+    var finished = false
+        private set
+
+    init {
+        // the size is set when the pixels are ready, the progress may reach 1 before
+        listOf(image.progressProperty(), image.widthProperty(), image.errorProperty())
+            .forEach { subscriptions.listen(it) { check() } }
+
+        check()
+    }
+
+    /**
+     * The progress of the loading, from 0 to 1
+     */
+    fun progressProperty(): ReadOnlyDoubleProperty = image.progressProperty()
+
+    /**
+     * Stop the decoding. Nothing is done if the loading is already finished.
+     */
+    fun cancel() {
+        if (finished)
+            return
+
+        finish()
+        image.cancel()
+    }
+
+    private fun check() {
+        if (finished)
+            return
+
+        if (image.isError) {
+            finish()
+            onFailed(image.exception)
+        } else if (image.progress >= 1.0 && image.width > 0) {
+            finish()
+            onLoaded(image)
+        }
+    }
+
+    private fun finish() {
+        finished = true
+        subscriptions.dispose()
+    }
+}
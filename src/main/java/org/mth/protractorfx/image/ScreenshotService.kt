@@ -0,0 +1,156 @@
+package org.mth.protractorfx.image
+
+import javafx.beans.property.SimpleObjectProperty
+import org.mth.protractorfx.SNAPSHOT_DIR
+import org.mth.protractorfx.getValue
+import org.mth.protractorfx.log.LogFactory
+import org.mth.protractorfx.setValue
+import java.awt.Rectangle
+import java.awt.Robot
+import java.awt.image.BufferedImage
+import java.io.File
+import java.time.LocalDateTime
+import java.time.format.DateTimeFormatter
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+import java.util.logging.Logger
+import javax.imageio.ImageIO
+
+/**
+ * Capture screenshots without blocking the application thread. The frames are grabbed by a capture thread, and
+ * handed through a bounded queue to a writer thread that encodes them. When the writer can't keep up, the frames
+ * exceeding the [QUEUE_CAPACITY] are dropped.
+ *
+ * Besides single shots, the service takes bursts of frames and timed captures at a fixed rate.
+ */
+object ScreenshotService {
+
+    enum class Format(val formatName: String, val extension: String) {
+        PNG("png", "png"),
+        JPEG("jpg", "jpg")
+    }
+
+    private class Frame(val image: BufferedImage, val file: File, val format: Format)
+
+    private val log: Logger = LogFactory.configureLog(ScreenshotService::class.java)
+
+    const val QUEUE_CAPACITY = 16
+
+    private val timestampFormat = DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss_SSS")
+
+    val formatProperty = SimpleObjectProperty(Format.JPEG)
+    val directoryProperty = SimpleObjectProperty<File>(SNAPSHOT_DIR)
+
+    /**
+     * The encoding of the next frames
+     */
+    var format: Format by formatProperty
+
+    /**
+     * The directory the next frames are written to
+     */
+    var directory: File by directoryProperty
+
+    private val queue = ArrayBlockingQueue<Frame>(QUEUE_CAPACITY)
+
+    private val capturer: ScheduledExecutorService = Executors.newSingleThreadScheduledExecutor { runnable ->
+        Thread(runnable, "screenshot-capture").apply { isDaemon = true }
+    }
+
+    private val writer = Thread(::writeFrames, "screenshot-writer").apply { isDaemon = true }
+
+    // used only by the capture thread
+    private var robot: Robot? = null
+    private var sequence = 0
+
+    private var timedCapture: ScheduledFuture<*>? = null
+
+    /**
+     * Capture the screen [area] once.
+     */
+    @JvmStatic
+    fun capture(area: Rectangle) = burst(area, 1, 0)
+
+    /**
+     * Capture the screen [area] [count] times, waiting [intervalMillis] between two frames.
+     */
+    @JvmStatic
+    fun burst(area: Rectangle, count: Int, intervalMillis: Long) {
+        val format = format
+        val directory = directory
+
+        for (i in 0 until count)
+            capturer.schedule({ grab(area, format, directory) }, i * intervalMillis, TimeUnit.MILLISECONDS)
+    }
+
+    /**
+     * Capture the screen [area] every [intervalMillis], until [stopTimedCapture] is called.
+     */
+    @JvmStatic
+    @Synchronized
+    fun startTimedCapture(area: Rectangle, intervalMillis: Long) {
+        stopTimedCapture()
+
+        val format = format
+        val directory = directory
+
+        timedCapture = capturer.scheduleAtFixedRate(
+            { grab(area, format, directory) },
+            0,
+            intervalMillis,
+            TimeUnit.MILLISECONDS
+        )
+    }
+
+    @JvmStatic
+    @Synchronized
+    fun stopTimedCapture() {
+        timedCapture?.cancel(false)
+        timedCapture = null
+    }
+
+    @JvmStatic
+    val isTimedCaptureRunning: Boolean
+        @Synchronized get() = timedCapture != null
+
+    private fun grab(area: Rectangle, format: Format, directory: File) {
+        try {
+            val robot = robot ?: Robot().also { robot = it }
+            val image = robot.createScreenCapture(area)
+            val name = "screenshot_${LocalDateTime.now().format(timestampFormat)}_${sequence++}.${format.extension}"
+
+            startWriter()
+
+            if (!queue.offer(Frame(image, File(directory, name), format)))
+                log.warning("Screenshot dropped: the writer queue is full")
+        } catch (e: Exception) {
+            log.severe("Cannot capture the screen: ${e.message}")
+        }
+    }
+
+    @Synchronized
+    private fun startWriter() {
+        if (!writer.isAlive)
+            writer.start()
+    }
+
+    private fun writeFrames() {
+        while (true) {
+            val frame = queue.take()
+
+            try {
+                frame.file.parentFile?.mkdirs()
+
+                if (ImageIO.write(frame.image, frame.format.formatName, frame.file))
+                    log.info("Screenshot saved to ${frame.file.absolutePath}")
+                else
+                    log.severe("No writer for the format ${frame.format}")
+            } catch (e: Exception) {
+                log.severe("Cannot write the screenshot ${frame.file}: ${e.message}")
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package org.mth.protractorfx.image
+
+import javafx.scene.image.Image
+
+/**
+ * Least recently used cache of the decoded tiles, bounded by the memory their pixels take. It is used only by the
+ * JavaFX application thread.
+ */
+class TileCache(val budgetBytes: Long = DEFAULT_BUDGET) {
+
+    private val tiles = LinkedHashMap<TileKey, Image>(64, .75f, true)
+
+    /**
+     * The memory taken by the cached tiles, in bytes
+     */
+    var bytes = 0L
+        private set
+
+    val size: Int get() = tiles.size
+
+    operator fun get(key: TileKey): Image? = tiles[key]
+
+    operator fun contains(key: TileKey) = tiles.containsKey(key)
+
+    fun put(key: TileKey, image: Image) {
+        tiles.put(key, image)?.let { bytes -= sizeOf(it) }
+        bytes += sizeOf(image)
+
+        // evict the least recently used tiles; the one just added is the last, and is never evicted
+        val iterator = tiles.entries.iterator()
+
+        while (bytes > budgetBytes && tiles.size > 1) {
+            val eldest = iterator.next()
+
+            bytes -= sizeOf(eldest.value)
+            iterator.remove()
+        }
+    }
+
+    fun clear() {
+        tiles.clear()
+        bytes = 0
+    }
+
+    private fun sizeOf(image: Image) = image.width.toLong() * image.height.toLong() * 4
+
+    companion object {
+
+        /**
+         * The budget set with the system property `protractorfx.tileCacheMegabytes`, 256 MB by default
+         */
+        @JvmField
+        val DEFAULT_BUDGET = (System.getProperty("protractorfx.tileCacheMegabytes")?.toLongOrNull() ?: 256L) shl 20
+    }
+}
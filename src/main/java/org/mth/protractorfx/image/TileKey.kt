@@ -0,0 +1,7 @@
+package org.mth.protractorfx.image
+
+/**
+ * Identify the tile at column [col] and row [row] of the pyramid [level]. The level 0 has the full resolution, every
+ * following level halves it.
+ */
+data class TileKey(val level: Int, val col: Int, val row: Int)
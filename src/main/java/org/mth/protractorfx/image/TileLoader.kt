@@ -0,0 +1,89 @@
+package org.mth.protractorfx.image
+
+import javafx.application.Platform
+import javafx.embed.swing.SwingFXUtils
+import javafx.scene.image.Image
+import org.mth.protractorfx.log.LogFactory
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.logging.Logger
+
+/**
+ * Decode the tiles of a [TileSource] on background threads. The loaded tiles are delivered on the JavaFX application
+ * thread. A requested tile no longer wanted when its turn comes (see [retain]) is skipped without being decoded.
+ */
+class TileLoader(private val source: TileSource, threads: Int = DEFAULT_THREADS) {
+
+    private val executor: ExecutorService = Executors.newFixedThreadPool(threads) { runnable ->
+        Thread(runnable, "tile-loader").apply { isDaemon = true }
+    }
+
+    // tiles queued or being decoded, accessed only by the application thread
+    private val inFlight = HashSet<TileKey>()
+
+    private val wanted: MutableSet<TileKey> = ConcurrentHashMap.newKeySet()
+
+    /**
+     * `true` after [shutdown]: no tile is requested or delivered any more
+     */
+    @Volatile
+    private var shutdown = false
+
+    /**
+     * Load the tile identified by the [key], then call [onLoaded] on the application thread. Nothing is done if the
+     * tile is already being loaded, or if the loader has been shut down.
+     */
+    fun request(key: TileKey, onLoaded: (TileKey, Image) -> Unit) {
+        if (shutdown)
+            return
+
+        wanted.add(key)
+
+        if (!inFlight.add(key))
+            return
+
+        executor.execute {
+            val image = if (key in wanted) decode(key) else null
+
+            Platform.runLater {
+                inFlight.remove(key)
+
+                // a decode in flight at the shutdown is dropped
+                if (image != null && !shutdown)
+                    onLoaded(key, image)
+            }
+        }
+    }
+
+    /**
+     * Keep wanting only the tiles in [keys]: the other queued tiles aren't decoded.
+     */
+    fun retain(keys: Set<TileKey>) {
+        wanted.retainAll(keys)
+    }
+
+    /**
+     * Stop the decoding threads. The tiles in flight are discarded, and the later requests are ignored.
+     */
+    fun shutdown() {
+        shutdown = true
+        wanted.clear()
+        executor.shutdownNow()
+    }
+
+    private fun decode(key: TileKey): Image? =
+        try {
+            SwingFXUtils.toFXImage(source.decode(key), null)
+        } catch (e: Exception) {
+            log.warning("Cannot decode tile $key of ${source.file}: ${e.message}")
+            null
+        }
+
+    companion object {
+        private val log: Logger = LogFactory.configureLog(TileLoader::class.java)
+
+        @JvmField
+        val DEFAULT_THREADS = maxOf(2, Runtime.getRuntime().availableProcessors() - 1)
+    }
+}
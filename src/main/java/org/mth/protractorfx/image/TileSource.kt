@@ -0,0 +1,149 @@
+package org.mth.protractorfx.image
+
+import java.awt.Rectangle
+import java.awt.image.BufferedImage
+import java.io.Closeable
+import java.io.File
+import java.io.IOException
+import javax.imageio.ImageIO
+import javax.imageio.ImageReader
+import kotlin.math.floor
+import kotlin.math.ln
+
+/**
+ * Virtual multi-resolution pyramid over an image file. No level is precomputed: each tile is decoded on request,
+ * reading only its region of the file and subsampling it to the resolution of its level.
+ *
+ * The source can be used by several threads at once: every decoding borrows an [ImageReader] from a pool.
+ */
+class TileSource @JvmOverloads @Throws(IOException::class) constructor(val file: File, val tileSize: Int = DEFAULT_TILE_SIZE) : Closeable {
+
+    private val readers = ArrayDeque<ImageReader>()
+    private val openedReaders = mutableListOf<ImageReader>()
+
+    @Volatile
+    private var closed = false
+
+    val width: Int
+    val height: Int
+
+    /**
+     * The number of levels of the pyramid. The last level fits in a single tile.
+     */
+    val levels: Int
+
+    init {
+        val reader = openReader()
+
+        width = reader.getWidth(0)
+        height = reader.getHeight(0)
+
+        var level = 0
+        while (maxOf(width, height) shr level > tileSize)
+            level++
+
+        levels = level + 1
+        readers.add(reader)
+    }
+
+    /**
+     * Number of source pixels covered by the side of a tile of the [level]
+     */
+    fun extent(level: Int) = tileSize shl level
+
+    fun columns(level: Int) = (width + extent(level) - 1) / extent(level)
+
+    fun rows(level: Int) = (height + extent(level) - 1) / extent(level)
+
+    /**
+     * Return the level whose resolution is the nearest not lower than the one needed to display the image at [zoom].
+     */
+    fun levelFor(zoom: Double): Int {
+        val level = floor(ln(1 / zoom) / ln(2.0)).toInt()
+
+        return level.coerceIn(0, levels - 1)
+    }
+
+    /**
+     * The region of the source image covered by the tile, in full resolution pixels
+     */
+    fun region(key: TileKey): Rectangle {
+        val extent = extent(key.level)
+        val x = key.col * extent
+        val y = key.row * extent
+
+        return Rectangle(x, y, minOf(extent, width - x), minOf(extent, height - y))
+    }
+
+    /**
+     * Decode the tile identified by the [key].
+     */
+    @Throws(IOException::class)
+    fun decode(key: TileKey): BufferedImage {
+        val reader = borrowReader()
+
+        try {
+            val param = reader.defaultReadParam.apply {
+                sourceRegion = region(key)
+                setSourceSubsampling(1 shl key.level, 1 shl key.level, 0, 0)
+            }
+
+            return reader.read(0, param)
+        } finally {
+            returnReader(reader)
+        }
+    }
+
+    override fun close() {
+        closed = true
+
+        synchronized(readers) {
+            openedReaders.forEach { dispose(it) }
+            openedReaders.clear()
+            readers.clear()
+        }
+    }
+
+    private fun borrowReader(): ImageReader {
+        synchronized(readers) {
+            if (closed)
+                throw IOException("Tile source closed: $file")
+
+            return readers.removeFirstOrNull() ?: openReader()
+        }
+    }
+
+    private fun returnReader(reader: ImageReader) {
+        synchronized(readers) {
+            if (closed)
+                dispose(reader)
+            else
+                readers.addLast(reader)
+        }
+    }
+
+    private fun openReader(): ImageReader {
+        val input = ImageIO.createImageInputStream(file) ?: throw IOException("Cannot read $file")
+        val iterator = ImageIO.getImageReaders(input)
+
+        if (!iterator.hasNext()) {
+            input.close()
+            throw IOException("Unsupported image format: $file")
+        }
+
+        return iterator.next().apply {
+            setInput(input, true, true)
+
+            synchronized(readers) { openedReaders.add(this) }
+        }
+    }
+
+    private fun dispose(reader: ImageReader) {
+        (reader.input as? Closeable)?.close()
+        reader.dispose()
+    }
+
+    companion object {
+        const val DEFAULT_TILE_SIZE = 512
+    }
+}
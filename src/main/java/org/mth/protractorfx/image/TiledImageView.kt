@@ -0,0 +1,244 @@
+package org.mth.protractorfx.image
+
+import javafx.beans.property.DoubleProperty
+import javafx.beans.property.SimpleDoubleProperty
+import javafx.scene.control.ScrollPane
+import javafx.scene.image.Image
+import javafx.scene.image.ImageView
+import javafx.scene.layout.Pane
+import org.mth.protractorfx.FrameScheduler
+import org.mth.protractorfx.Subscriptions
+import org.mth.protractorfx.getValue
+import org.mth.protractorfx.setValue
+import kotlin.math.floor
+
+/**
+ * Display a very large image composing the tiles of a [TileSource]. Only the tiles intersecting the visible part of
+ * the view are kept as nodes; they are taken from the level of the pyramid matching the [zoom], and loaded in
+ * background through a [TileCache]. Under the tiles, the whole image is shown from the coarsest level.
+ */
+class TiledImageView(
+    private val source: TileSource,
+    cacheBudget: Long = TileCache.DEFAULT_BUDGET,
+) : Pane() {
+
+    private val zoom = SimpleDoubleProperty(1.0)
+
+    /**
+     * The scale the image is displayed with
+     */
+    var zoomValue: Double by zoom
+
+    private val cache = TileCache(cacheBudget)
+    private val loader = TileLoader(source)
+    private val subscriptions = Subscriptions()
+
+    /**
+     * The coarsest level, stretched under the tiles not loaded yet
+     */
+    private val preview = ImageView()
+    private val previewKey = TileKey(source.levels - 1, 0, 0)
+
+    private val tiles = HashMap<TileKey, ImageView>()
+
+    // the visible part of the view, in view coordinates
+    private var viewportX = .0
+    private var viewportY = .0
+    private var viewportWidth = .0
+    private var viewportHeight = .0
+
+    private var refreshPending = false
+
+    /**
+     * `true` after [dispose]: the view no longer shows or loads tiles
+     */
+    private var disposed = false
+
+    private val refreshTask = Runnable {
+        refreshPending = false
+        refresh()
+    }
+
+    val imageWidth: Int get() = source.width
+    val imageHeight: Int get() = source.height
+
+    init {
+        preview.isSmooth = true
+        children.add(preview)
+
+        subscriptions.listen(zoom) {
+            updateSize()
+            requestRefresh()
+        }
+
+        updateSize()
+
+        loader.request(previewKey) { _, image ->
+            if (!disposed)
+                preview.image = image
+        }
+    }
+
+    fun zoomProperty(): DoubleProperty = zoom
+
+    /**
+     * Track the visible part of the view, displayed as content of the [scrollPane].
+     */
+    fun follow(scrollPane: ScrollPane) {
+        val updateViewport = {
+            val bounds = scrollPane.viewportBounds
+            val hRange = scrollPane.hmax - scrollPane.hmin
+            val vRange = scrollPane.vmax - scrollPane.vmin
+            val h = if (hRange > 0) (scrollPane.hvalue - scrollPane.hmin) / hRange else .0
+            val v = if (vRange > 0) (scrollPane.vvalue - scrollPane.vmin) / vRange else .0
+
+            showViewport(
+                h * maxOf(.0, prefWidth - bounds.width),
+                v * maxOf(.0, prefHeight - bounds.height),
+                bounds.width,
+                bounds.height
+            )
+        }
+
+        listOf(scrollPane.hvalueProperty(), scrollPane.vvalueProperty(), scrollPane.viewportBoundsProperty(), zoom)
+            .forEach { subscriptions.listen(it) { updateViewport() } }
+
+        updateViewport()
+    }
+
+    /**
+     * Set the visible part of the view, in view coordinates.
+     */
+    fun showViewport(x: Double, y: Double, width: Double, height: Double) {
+        viewportX = x
+        viewportY = y
+        viewportWidth = width
+        viewportHeight = height
+
+        requestRefresh()
+    }
+
+    /**
+     * Stop the loading of the tiles and release the source.
+     */
+    fun dispose() {
+        disposed = true
+        subscriptions.dispose()
+        loader.shutdown()
+        cache.clear()
+        tiles.clear()
+        children.clear()
+        source.close()
+    }
+
+    private fun updateSize() {
+        val width = source.width * zoomValue
+        val height = source.height * zoomValue
+
+        setMinSize(width, height)
+        setPrefSize(width, height)
+        setMaxSize(width, height)
+
+        preview.fitWidth = width
+        preview.fitHeight = height
+    }
+
+    private fun requestRefresh() {
+        if (refreshPending || disposed)
+            return
+
+        refreshPending = true
+        FrameScheduler.post(refreshTask)
+    }
+
+    /**
+     * Show the tiles of the current level intersecting the viewport, and request the missing ones.
+     */
+    private fun refresh() {
+        if (disposed)
+            return
+
+        val zoom = zoomValue
+        val level = source.levelFor(zoom)
+        val extent = source.extent(level).toDouble()
+
+        // the visible region in source pixels
+        val fromCol = floor(viewportX / zoom / extent).toInt().coerceAtLeast(0)
+        val fromRow = floor(viewportY / zoom / extent).toInt().coerceAtLeast(0)
+        val toCol = floor((viewportX + viewportWidth) / zoom / extent).toInt().coerceAtMost(source.columns(level) - 1)
+        val toRow = floor((viewportY + viewportHeight) / zoom / extent).toInt().coerceAtMost(source.rows(level) - 1)
+
+        val visible = HashSet<TileKey>()
+
+        for (col in fromCol..toCol) {
+            for (row in fromRow..toRow) {
+                val key = TileKey(level, col, row)
+                visible.add(key)
+
+                val image = cache[key]
+
+                if (image == null)
+                    loader.request(key, ::tileLoaded)
+                else
+                    show(key, image)
+            }
+        }
+
+        // remove the tiles gone out of view, or of another level
+        val iterator = tiles.entries.iterator()
+
+        while (iterator.hasNext()) {
+            val (key, view) = iterator.next()
+
+            if (key !in visible) {
+                children.remove(view)
+                iterator.remove()
+            }
+        }
+
+        if (preview.image == null)
+            visible.add(previewKey)
+
+        loader.retain(visible)
+    }
+
+    private fun tileLoaded(key: TileKey, image: Image) {
+        if (disposed)
+            return
+
+        cache.put(key, image)
+        requestRefresh()
+    }
+
+    private fun show(key: TileKey, image: Image) {
+        val view = tiles.getOrPut(key) {
+            ImageView(image).also { children.add(it) }
+        }
+
+        val region = source.region(key)
+
+        with(view) {
+            layoutX = region.x * zoomValue
+            layoutY = region.y * zoomValue
+            fitWidth = region.width * zoomValue
+            fitHeight = region.height * zoomValue
+        }
+    }
+
+    companion object {
+
+        /**
+         * Side above which an image can't be uploaded as a single texture
+         */
+        const val MAX_TEXTURE_SIZE = 8192
+
+        /**
+         * Number of pixels above which an image is displayed by tiles
+         */
+        const val MAX_PIXELS = 32L * 1024 * 1024
+
+        @JvmStatic
+        fun requiresTiling(width: Int, height: Int) =
+            maxOf(width, height) > MAX_TEXTURE_SIZE || width.toLong() * height > MAX_PIXELS
+    }
+}
@@ -0,0 +1,114 @@
+package org.mth.protractorfx.image
+
+import javafx.geometry.Rectangle2D
+import javafx.scene.image.Image
+import javafx.scene.image.ImageView
+import javafx.scene.transform.Translate
+import org.mth.protractorfx.DotChain
+import org.mth.protractorfx.chains
+import org.mth.protractorfx.command.Action
+import org.mth.protractorfx.project.Journal
+
+/**
+ * Crop the image without touching its pixels: only the viewport of the [imageView] is changed, keeping the display
+ * scale. The chains are moved by the same translation the crop applies to the image content, so they stay on the
+ * features they measure. Both the execution and the undo take constant time with respect to the image size.
+ *
+ * The journal has no record for the viewport: the execution, the redo and the undo write a checkpoint instead.
+ *
+ * @param viewport The new viewport, in image pixels
+ * @param dx Horizontal translation of the image content on the screen, applied to the chains as well
+ * @param dy Vertical translation of the image content on the screen, applied to the chains as well
+ */
+class ViewportCropAction(
+    private val imageView: ImageView,
+    private val viewport: Rectangle2D,
+    private val dx: Double,
+    private val dy: Double,
+    override val name: String = "crop-image",
+) : Action {
+
+    private var croppedImage: Image? = null
+    private var previousViewport: Rectangle2D? = null
+    private var previousFitWidth = .0
+    private var previousFitHeight = .0
+
+    /**
+     * The chains moved by the crop, moved back by the undo
+     */
+    private var movedChains: List<DotChain> = emptyList()
+
+    override fun execute(): Boolean {
+        val current = imageView.viewport ?: imageView.image?.let { Rectangle2D(.0, .0, it.width, it.height) }
+        ?: return false
+
+        croppedImage = imageView.image
+        previousViewport = imageView.viewport
+        previousFitWidth = imageView.fitWidth
+        previousFitHeight = imageView.fitHeight
+
+        // preserve the number of screen pixels per image pixel
+        val scaleX = imageView.fitWidth / current.width
+        val scaleY = imageView.fitHeight / current.height
+
+        imageView.viewport = viewport
+        imageView.fitWidth = viewport.width * scaleX
+        imageView.fitHeight = viewport.height * scaleY
+
+        movedChains = ArrayList(chains)
+        movedChains.forEach { it.translate(Translate(dx, dy)) }
+        Journal.checkpoint()
+
+        return true
+    }
+
+    override fun undo() {
+        // another image may have been opened in the meantime: the chains belong to it now, and stay where they are
+        if (imageView.image === croppedImage) {
+            imageView.viewport = previousViewport
+            imageView.fitWidth = previousFitWidth
+            imageView.fitHeight = previousFitHeight
+
+            movedChains.forEach { it.translate(Translate(-dx, -dy)) }
+        }
+
+        Journal.checkpoint()
+    }
+
+    companion object {
+
+        /**
+         * Build the crop of the area (x, y, width, height), expressed in screen pixels relative to the current
+         * viewport of the [imageView]. The area is clipped to the image bounds.
+         * @param zoom The scale applied to the [imageView] on top of its fit size
+         */
+        @JvmStatic
+        fun of(imageView: ImageView, x: Double, y: Double, width: Double, height: Double, zoom: Double):
+                ViewportCropAction? {
+            val image = imageView.image ?: return null
+            val current = imageView.viewport ?: Rectangle2D(.0, .0, image.width, image.height)
+
+            // screen pixels per image pixel: the viewport and the translation of the chains both follow the zoom
+            val scaleX = imageView.fitWidth / current.width * zoom
+            val scaleY = imageView.fitHeight / current.height * zoom
+
+            val minX = (current.minX + x / scaleX).coerceIn(.0, image.width)
+            val minY = (current.minY + y / scaleY).coerceIn(.0, image.height)
+            val maxX = (current.minX + (x + width) / scaleX).coerceIn(minX, image.width)
+            val maxY = (current.minY + (y + height) / scaleY).coerceIn(minY, image.height)
+
+            if (maxX - minX < 1 || maxY - minY < 1)
+                return null
+
+            val viewport = Rectangle2D(minX, minY, maxX - minX, maxY - minY)
+
+            // the content at the new viewport origin goes to the old one
+            return ViewportCropAction(
+                imageView,
+                viewport,
+                -(minX - current.minX) * scaleX,
+                -(minY - current.minY) * scaleY
+            )
+        }
+    }
+}
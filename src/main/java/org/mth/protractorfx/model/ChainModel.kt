@@ -0,0 +1,423 @@
+package org.mth.protractorfx.model
+
+import kotlin.math.floor
+
+/**
+ * Graph model of a chain, stored as structure of arrays. Every node is identified by an `int` id, that is an index in
+ * the coordinate arrays [xs] and [ys]; the adjacency of each node is a primitive list of ids.
+ *
+ * The ids of the removed nodes are recycled by the next insertions. The model doesn't depend on the JavaFX toolkit.
+ *
+ * The model tracks the nodes changed since its last [snapshot], so that a new immutable version copies only them, and
+ * can be switched back to any version with [restore].
+ */
+class ChainModel(initialCapacity: Int = 16) {
+
+    /**
+     * Horizontal coordinates of the nodes, indexed by id
+     */
+    var xs = DoubleArray(initialCapacity)
+        private set
+
+    /**
+     * Vertical coordinates of the nodes, indexed by id
+     */
+    var ys = DoubleArray(initialCapacity)
+        private set
+
+    /**
+     * Flags of the ids actually in use, indexed by id
+     */
+    var alive = BooleanArray(initialCapacity)
+        private set
+
+    private var adjacency = arrayOfNulls<IntArray>(initialCapacity)
+    private var degrees = IntArray(initialCapacity)
+
+    private var freeIds = IntArray(8)
+    private var freeCount = 0
+
+    // position of every free id in freeIds, for the removal of a given id
+    private var freeSlots = IntArray(initialCapacity)
+
+    // ids changed since the last snapshot
+    private var changedIds = IntArray(8)
+    private var changedCount = 0
+    private var changed = BooleanArray(initialCapacity)
+
+    /**
+     * The version taken by the last [snapshot]
+     */
+    private var state = ChainState.EMPTY
+
+    /**
+     * Upper bound (exclusive) of the ids used so far
+     */
+    var idBound = 0
+        private set
+
+    /**
+     * The number of nodes in the model
+     */
+    var size = 0
+        private set
+
+    /**
+     * Add a new node located at (x, y), returning its id.
+     */
+    fun add(x: Double, y: Double): Int {
+        val id = if (freeCount > 0) freeIds[--freeCount] else idBound++
+
+        ensureCapacity(idBound)
+
+        xs[id] = x
+        ys[id] = y
+        degrees[id] = 0
+        alive[id] = true
+        size++
+        touch(id)
+
+        return id
+    }
+
+    /**
+     * Add a new node with the given [id], located at (x, y). It rebuilds a model with the ids it had when it was
+     * saved: the ids skipped by the insertion become free.
+     */
+    fun addWithId(id: Int, x: Double, y: Double) {
+        if (id < 0 || contains(id))
+            throw IllegalArgumentException("Id $id not available")
+
+        if (id >= idBound) {
+            ensureCapacity(id + 1)
+
+            for (skipped in idBound until id)
+                pushFreeId(skipped)
+
+            idBound = id + 1
+        } else {
+            removeFreeId(id)
+        }
+
+        xs[id] = x
+        ys[id] = y
+        degrees[id] = 0
+        alive[id] = true
+        size++
+        touch(id)
+    }
+
+    /**
+     * Remove the node and all the edges incident to it.
+     */
+    fun remove(id: Int) {
+        checkId(id)
+
+        while (degrees[id] > 0)
+            disconnect(id, adjacency[id]!![0])
+
+        alive[id] = false
+        size--
+        touch(id)
+
+        pushFreeId(id)
+    }
+
+    /**
+     * Add an undirected edge between the two nodes.
+     * @return `false` if the edge was already present
+     */
+    fun connect(a: Int, b: Int): Boolean {
+        checkId(a)
+        checkId(b)
+
+        if (a == b || isConnected(a, b))
+            return false
+
+        append(a, b)
+        append(b, a)
+
+        return true
+    }
+
+    /**
+     * Remove the undirected edge between the two nodes.
+     * @return `false` if the nodes weren't connected
+     */
+    fun disconnect(a: Int, b: Int): Boolean {
+        if (!isConnected(a, b))
+            return false
+
+        removeFrom(a, b)
+        removeFrom(b, a)
+
+        return true
+    }
+
+    fun isConnected(a: Int, b: Int): Boolean {
+        val neighbors = adjacency[a] ?: return false
+
+        for (i in 0 until degrees[a])
+            if (neighbors[i] == b)
+                return true
+
+        return false
+    }
+
+    fun contains(id: Int) = id in 0 until idBound && alive[id]
+
+    fun degree(id: Int) = degrees[id]
+
+    /**
+     * Return the [index]-th neighbor of the node [id].
+     */
+    fun neighbor(id: Int, index: Int): Int {
+        if (index >= degrees[id])
+            throw IndexOutOfBoundsException("Node $id has only ${degrees[id]} neighbors")
+
+        return adjacency[id]!![index]
+    }
+
+    fun x(id: Int) = xs[id]
+
+    fun y(id: Int) = ys[id]
+
+    fun setLocation(id: Int, x: Double, y: Double) {
+        if (xs[id] == x && ys[id] == y)
+            return
+
+        xs[id] = x
+        ys[id] = y
+        touch(id)
+    }
+
+    /**
+     * Translate all the nodes by the vector (dx, dy).
+     */
+    fun translate(dx: Double, dy: Double) {
+        for (id in 0 until idBound) {
+            if (alive[id]) {
+                xs[id] += dx
+                ys[id] += dy
+                touch(id)
+            }
+        }
+    }
+
+    inline fun forEachId(action: (Int) -> Unit) {
+        for (id in 0 until idBound)
+            if (contains(id))
+                action(id)
+    }
+
+    inline fun forEachNeighbor(id: Int, action: (Int) -> Unit) {
+        for (i in 0 until degree(id))
+            action(neighbor(id, i))
+    }
+
+    /**
+     * Call the [action] on the edges of a simplified version of the graph, where the nodes falling in the same square
+     * cell of side [tolerance] are merged into the first one found. The edges inside a cell and the duplicated edges
+     * are dropped; the ones left are passed as the ids of the merged nodes.
+     */
+    fun forEachSimplifiedEdge(tolerance: Double, action: (Int, Int) -> Unit) {
+        val representatives = IntArray(idBound)
+        val cells = HashMap<Long, Int>()
+
+        forEachId { id ->
+            val col = floor(xs[id] / tolerance).toLong()
+            val row = floor(ys[id] / tolerance).toLong()
+
+            representatives[id] = cells.getOrPut((col shl 32) or (row and 0xFFFFFFFFL)) { id }
+        }
+
+        val edges = HashSet<Long>()
+
+        forEachId { id ->
+            forEachNeighbor(id) { neighbor ->
+                val a = representatives[id]
+                val b = representatives[neighbor]
+
+                // each edge is seen from both its nodes: keep only the ordered pair
+                if (a < b && edges.add((a.toLong() shl 32) or b.toLong()))
+                    action(a, b)
+            }
+        }
+    }
+
+    fun clear() {
+        for (id in 0 until idBound) {
+            if (alive[id])
+                touch(id)
+
+            alive[id] = false
+            degrees[id] = 0
+        }
+
+        idBound = 0
+        size = 0
+        freeCount = 0
+    }
+
+    /**
+     * Take an immutable version of the model. The version shares with the previous one all the nodes not changed in
+     * the meantime: taking it costs O(k log n), for k changed nodes.
+     */
+    fun snapshot(): ChainState {
+        if (changedCount == 0)
+            return state
+
+        val ids = changedIds.copyOf(changedCount)
+        ids.sort()
+
+        state = state.with(ids, size) { id ->
+            if (alive[id])
+                ChainState.Node(xs[id], ys[id], adjacency[id]?.copyOf(degrees[id]) ?: IntArray(0))
+            else
+                null
+        }
+
+        ids.forEach { changed[it] = false }
+        changedCount = 0
+
+        return state
+    }
+
+    /**
+     * Bring the model back to the [target] version, updating only the nodes that differ from the current state.
+     * @return The ids of the updated nodes, in ascending order
+     */
+    fun restore(target: ChainState): IntArray {
+        val current = snapshot()
+
+        if (current === target)
+            return IntArray(0)
+
+        var updated = IntArray(16)
+        var count = 0
+
+        current.forEachDifference(target) { id ->
+            val node = target.node(id)
+
+            if (node == null) {
+                if (contains(id)) {
+                    alive[id] = false
+                    degrees[id] = 0
+                    size--
+                    pushFreeId(id)
+                }
+            } else {
+                if (id >= idBound) {
+                    ensureCapacity(id + 1)
+
+                    for (skipped in idBound until id)
+                        pushFreeId(skipped)
+
+                    idBound = id + 1
+                } else if (!alive[id])
+                    removeFreeId(id)
+
+                if (!alive[id]) {
+                    alive[id] = true
+                    size++
+                }
+
+                xs[id] = node.x
+                ys[id] = node.y
+                adjacency[id] = node.neighbors.copyOf(maxOf(2, node.neighbors.size))
+                degrees[id] = node.neighbors.size
+            }
+
+            if (count == updated.size)
+                updated = updated.copyOf(count * 2)
+
+            updated[count++] = id
+        }
+
+        // the model is now identical to the target version
+        state = target
+
+        return updated.copyOf(count)
+    }
+
+    private fun touch(id: Int) {
+        if (changed[id])
+            return
+
+        changed[id] = true
+
+        if (changedCount == changedIds.size)
+            changedIds = changedIds.copyOf(changedCount * 2)
+
+        changedIds[changedCount++] = id
+    }
+
+    private fun pushFreeId(id: Int) {
+        if (freeCount == freeIds.size)
+            freeIds = freeIds.copyOf(freeIds.size * 2)
+
+        freeSlots[id] = freeCount
+        freeIds[freeCount++] = id
+    }
+
+    /**
+     * Remove from the free ids the [id], that must be one of them.
+     */
+    private fun removeFreeId(id: Int) {
+        val slot = freeSlots[id]
+        val last = freeIds[--freeCount]
+
+        freeIds[slot] = last
+        freeSlots[last] = slot
+    }
+
+    private fun append(id: Int, neighbor: Int) {
+        var neighbors = adjacency[id]
+
+        if (neighbors == null) {
+            neighbors = IntArray(2)
+            adjacency[id] = neighbors
+        } else if (degrees[id] == neighbors.size) {
+            neighbors = neighbors.copyOf(neighbors.size * 2)
+            adjacency[id] = neighbors
+        }
+
+        neighbors[degrees[id]++] = neighbor
+        touch(id)
+    }
+
+    private fun removeFrom(id: Int, neighbor: Int) {
+        val neighbors = adjacency[id]!!
+        val last = degrees[id] - 1
+
+        for (i in 0..last) {
+            if (neighbors[i] == neighbor) {
+                // preserve the insertion order of the remaining neighbors
+                System.arraycopy(neighbors, i + 1, neighbors, i, last - i)
+                degrees[id] = last
+                touch(id)
+                return
+            }
+        }
+    }
+
+    private fun ensureCapacity(capacity: Int) {
+        if (capacity <= xs.size)
+            return
+
+        val newCapacity = maxOf(capacity, xs.size * 2)
+
+        xs = xs.copyOf(newCapacity)
+        ys = ys.copyOf(newCapacity)
+        adjacency = adjacency.copyOf(newCapacity)
+        degrees = degrees.copyOf(newCapacity)
+        alive = alive.copyOf(newCapacity)
+        freeSlots = freeSlots.copyOf(newCapacity)
+        changed = changed.copyOf(newCapacity)
+    }
+
+    private fun checkId(id: Int) {
+        if (!contains(id))
+            throw IllegalArgumentException("No node with id $id")
+    }
+}
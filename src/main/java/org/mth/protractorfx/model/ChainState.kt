@@ -0,0 +1,143 @@
+package org.mth.protractorfx.model
+
+/**
+ * Immutable version of a [ChainModel], taken by [ChainModel.snapshot]. The nodes are stored in a trie of 32-way
+ * branches indexed by id: a new version copies only the paths to the nodes changed since the previous one, and shares
+ * all the other branches with it. Two versions are compared by descending only the branches they don't share, so the
+ * cost of a comparison depends on the changed nodes, not on the size of the chain.
+ */
+class ChainState private constructor(
+    private val root: Array<Any?>,
+    private val shift: Int,
+
+    /**
+     * The number of nodes in this version
+     */
+    val size: Int,
+
+    /**
+     * The number of nodes copied by this version, the ones it doesn't share with the previous one
+     */
+    val copiedNodes: Int,
+) {
+
+    /**
+     * A node of a version, never modified
+     */
+    internal class Node(val x: Double, val y: Double, val neighbors: IntArray)
+
+    internal fun node(id: Int): Node? {
+        if (id < 0 || id ushr shift ushr BITS != 0)
+            return null
+
+        var branch = root
+        var s = shift
+
+        while (s > 0) {
+            @Suppress("UNCHECKED_CAST")
+            branch = branch[(id ushr s) and MASK] as Array<Any?>? ?: return null
+            s -= BITS
+        }
+
+        return branch[id and MASK] as Node?
+    }
+
+    /**
+     * A new version where the nodes [ids], sorted and distinct, are replaced by the result of [node], `null` for a
+     * removed node. Every branch on the paths to the nodes is copied only once.
+     */
+    internal fun with(ids: IntArray, size: Int, node: (Int) -> Node?): ChainState {
+        if (ids.isEmpty())
+            return this
+
+        var root = root
+        var shift = shift
+
+        // deepen the trie until it can address the greatest id
+        while (ids.last() ushr shift ushr BITS != 0) {
+            root = arrayOfNulls<Any>(WIDTH).also { it[0] = root }
+            shift += BITS
+        }
+
+        return ChainState(update(root, shift, ids, 0, ids.size, node), shift, size, ids.size)
+    }
+
+    /**
+     * Call the [action] on the ids of the nodes that differ between this version and the [other] one, in ascending
+     * order.
+     */
+    internal fun forEachDifference(other: ChainState, action: (Int) -> Unit) {
+        var a = root
+        var b = other.root
+        var shift = shift
+
+        // raise the shallower trie: the wrapping keeps its branches, and so what it shares with the other one
+        for (s in shift until other.shift step BITS)
+            a = arrayOfNulls<Any>(WIDTH).also { it[0] = a }
+
+        for (s in other.shift until shift step BITS)
+            b = arrayOfNulls<Any>(WIDTH).also { it[0] = b }
+
+        shift = maxOf(shift, other.shift)
+        difference(a, b, shift, 0, action)
+    }
+
+    private fun update(branch: Array<Any?>?, shift: Int, ids: IntArray, from: Int, to: Int, node: (Int) -> Node?):
+            Array<Any?> {
+        val copy = branch?.copyOf() ?: arrayOfNulls(WIDTH)
+        var i = from
+
+        while (i < to) {
+            val slot = (ids[i] ushr shift) and MASK
+
+            if (shift == 0) {
+                copy[slot] = node(ids[i++])
+                continue
+            }
+
+            // the sorted ids under the same slot are contiguous
+            var j = i + 1
+            while (j < to && (ids[j] ushr shift) and MASK == slot)
+                j++
+
+            @Suppress("UNCHECKED_CAST")
+            copy[slot] = update(copy[slot] as Array<Any?>?, shift - BITS, ids, i, j, node)
+            i = j
+        }
+
+        return copy
+    }
+
+    private fun difference(a: Array<Any?>?, b: Array<Any?>?, shift: Int, base: Int, action: (Int) -> Unit) {
+        if (a === b)
+            return
+
+        for (slot in 0 until WIDTH) {
+            val childA = a?.get(slot)
+            val childB = b?.get(slot)
+
+            if (childA === childB)
+                continue
+
+            val id = base or (slot shl shift)
+
+            @Suppress("UNCHECKED_CAST")
+            if (shift == 0)
+                action(id)
+            else
+                difference(childA as Array<Any?>?, childB as Array<Any?>?, shift - BITS, id, action)
+        }
+    }
+
+    companion object {
+        private const val BITS = 5
+        private const val WIDTH = 1 shl BITS
+        private const val MASK = WIDTH - 1
+
+        /**
+         * The version of a model without nodes
+         */
+        @JvmField
+        val EMPTY = ChainState(arrayOfNulls(WIDTH), 0, 0, 0)
+    }
+}
@@ -0,0 +1,298 @@
+package org.mth.protractorfx.model
+
+import kotlin.math.floor
+import kotlin.math.max
+import kotlin.math.sqrt
+
+/**
+ * Uniform grid indexing a set of points in the plane. Each item is stored, with its coordinates, in the square cell of
+ * side [cellSize] containing it, so that the queries only visit the cells around the searched area.
+ *
+ * Moving an item inside its own cell costs just a coordinate update. The grid doesn't depend on the JavaFX toolkit.
+ */
+class SpatialGrid<T : Any>(val cellSize: Double = 64.0) {
+
+    private class Cell(val key: Long) {
+        var items = arrayOfNulls<Any>(4)
+        var xs = DoubleArray(4)
+        var ys = DoubleArray(4)
+        var count = 0
+
+        fun add(item: Any, x: Double, y: Double) {
+            if (count == items.size) {
+                items = items.copyOf(count * 2)
+                xs = xs.copyOf(count * 2)
+                ys = ys.copyOf(count * 2)
+            }
+
+            items[count] = item
+            xs[count] = x
+            ys[count] = y
+            count++
+        }
+
+        fun indexOf(item: Any): Int {
+            for (i in 0 until count)
+                if (items[i] == item)
+                    return i
+
+            return -1
+        }
+
+        fun removeAt(index: Int) {
+            // move the last item in the freed slot
+            count--
+            items[index] = items[count]
+            xs[index] = xs[count]
+            ys[index] = ys[count]
+            items[count] = null
+        }
+    }
+
+    private val cells = HashMap<Long, Cell>()
+    private val itemCells = HashMap<T, Cell>()
+
+    // bounds of the cell coordinates ever used, to stop the ring searches
+    private var minCol = Int.MAX_VALUE
+    private var maxCol = Int.MIN_VALUE
+    private var minRow = Int.MAX_VALUE
+    private var maxRow = Int.MIN_VALUE
+
+    /**
+     * The number of indexed items
+     */
+    val size: Int get() = itemCells.size
+
+    fun contains(item: T) = itemCells.containsKey(item)
+
+    fun insert(item: T, x: Double, y: Double) {
+        if (itemCells.containsKey(item)) {
+            move(item, x, y)
+            return
+        }
+
+        val cell = cellAt(x, y)
+        cell.add(item, x, y)
+        itemCells[item] = cell
+    }
+
+    /**
+     * Update the location of the [item]. Unknown items are ignored.
+     */
+    fun move(item: T, x: Double, y: Double) {
+        val cell = itemCells[item] ?: return
+        val index = cell.indexOf(item)
+
+        if (cell.key == key(column(x), row(y))) {
+            cell.xs[index] = x
+            cell.ys[index] = y
+        } else {
+            detach(cell, index)
+
+            val newCell = cellAt(x, y)
+            newCell.add(item, x, y)
+            itemCells[item] = newCell
+        }
+    }
+
+    fun remove(item: T) {
+        val cell = itemCells.remove(item) ?: return
+        detach(cell, cell.indexOf(item))
+    }
+
+    fun clear() {
+        cells.clear()
+        itemCells.clear()
+        minCol = Int.MAX_VALUE
+        maxCol = Int.MIN_VALUE
+        minRow = Int.MAX_VALUE
+        maxRow = Int.MIN_VALUE
+    }
+
+    /**
+     * Find the item nearest to the point (x, y), among the ones accepted by the [filter].
+     * @return `null` if no item is found
+     */
+    fun nearest(x: Double, y: Double, filter: (T) -> Boolean = { true }): T? =
+        nearest(x, y, 1, filter).firstOrNull()
+
+    /**
+     * Find the [k] items nearest to the point (x, y), among the ones accepted by the [filter]. The items are returned
+     * in order of increasing distance.
+     */
+    @Suppress("UNCHECKED_CAST")
+    fun nearest(x: Double, y: Double, k: Int, filter: (T) -> Boolean = { true }): List<T> {
+        if (k <= 0 || itemCells.isEmpty())
+            return emptyList()
+
+        // candidates sorted by increasing squared distance
+        val found = ArrayList<T>(k)
+        val distances = DoubleArray(k)
+
+        val col = column(x)
+        val row = row(y)
+        val maxRing = max(
+            max(col - minCol, maxCol - col),
+            max(row - minRow, maxRow - row)
+        )
+
+        var ring = 0
+
+        while (ring <= maxRing) {
+            forEachCellInRing(col, row, ring) { cell ->
+                for (i in 0 until cell.count) {
+                    val item = cell.items[i] as T
+
+                    if (!filter(item))
+                        continue
+
+                    val dx = cell.xs[i] - x
+                    val dy = cell.ys[i] - y
+                    val distance = dx * dx + dy * dy
+
+                    if (found.size < k || distance < distances[found.size - 1]) {
+                        // insertion sort into the bounded list of candidates
+                        var position = if (found.size < k) found.size else k - 1
+
+                        while (position > 0 && distances[position - 1] > distance) {
+                            if (position < k)
+                                distances[position] = distances[position - 1]
+                            position--
+                        }
+
+                        if (found.size == k)
+                            found.removeAt(k - 1)
+
+                        found.add(position, item)
+                        distances[position] = distance
+                    }
+                }
+            }
+
+            // the items in the next rings are at least `ring * cellSize` far from the point
+            if (found.size == k) {
+                val reach = ring * cellSize
+
+                if (reach * reach >= distances[k - 1])
+                    break
+            }
+
+            ring++
+        }
+
+        return found
+    }
+
+    /**
+     * Call the [action] on every item whose distance from (x, y) is not greater than [radius].
+     */
+    fun withinRadius(x: Double, y: Double, radius: Double, action: (T) -> Unit) {
+        val squaredRadius = radius * radius
+
+        scan(x - radius, y - radius, x + radius, y + radius) { item, itemX, itemY ->
+            val dx = itemX - x
+            val dy = itemY - y
+
+            if (dx * dx + dy * dy <= squaredRadius)
+                action(item)
+        }
+    }
+
+    /**
+     * Call the [action] on every item located inside the rectangle, bounds included.
+     */
+    fun inRectangle(minX: Double, minY: Double, maxX: Double, maxY: Double, action: (T) -> Unit) =
+        scan(minX, minY, maxX, maxY) { item, _, _ -> action(item) }
+
+    /**
+     * Return the item nearest to (x, y) among the ones not farther than [radius], or `null`.
+     */
+    fun hit(x: Double, y: Double, radius: Double): T? {
+        var best: T? = null
+        var bestDistance = Double.MAX_VALUE
+
+        scan(x - radius, y - radius, x + radius, y + radius) { item, itemX, itemY ->
+            val distance = sqrt((itemX - x) * (itemX - x) + (itemY - y) * (itemY - y))
+
+            if (distance <= radius && distance < bestDistance) {
+                bestDistance = distance
+                best = item
+            }
+        }
+
+        return best
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    private inline fun scan(
+        minX: Double,
+        minY: Double,
+        maxX: Double,
+        maxY: Double,
+        action: (T, Double, Double) -> Unit,
+    ) {
+        if (itemCells.isEmpty())
+            return
+
+        val fromCol = max(column(minX), minCol)
+        val toCol = minOf(column(maxX), maxCol)
+        val fromRow = max(row(minY), minRow)
+        val toRow = minOf(row(maxY), maxRow)
+
+        for (col in fromCol..toCol) {
+            for (row in fromRow..toRow) {
+                val cell = cells[key(col, row)] ?: continue
+
+                for (i in 0 until cell.count) {
+                    val x = cell.xs[i]
+                    val y = cell.ys[i]
+
+                    if (x in minX..maxX && y in minY..maxY)
+                        action(cell.items[i] as T, x, y)
+                }
+            }
+        }
+    }
+
+    private inline fun forEachCellInRing(col: Int, row: Int, ring: Int, action: (Cell) -> Unit) {
+        if (ring == 0) {
+            cells[key(col, row)]?.let(action)
+            return
+        }
+
+        for (c in col - ring..col + ring) {
+            cells[key(c, row - ring)]?.let(action)
+            cells[key(c, row + ring)]?.let(action)
+        }
+
+        for (r in row - ring + 1 until row + ring) {
+            cells[key(col - ring, r)]?.let(action)
+            cells[key(col + ring, r)]?.let(action)
+        }
+    }
+
+    private fun cellAt(x: Double, y: Double): Cell {
+        val col = column(x)
+        val row = row(y)
+
+        minCol = minOf(minCol, col)
+        maxCol = max(maxCol, col)
+        minRow = minOf(minRow, row)
+        maxRow = max(maxRow, row)
+
+        return cells.getOrPut(key(col, row)) { Cell(key(col, row)) }
+    }
+
+    private fun detach(cell: Cell, index: Int) {
+        cell.removeAt(index)
+
+        if (cell.count == 0)
+            cells.remove(cell.key)
+    }
+
+    private fun column(x: Double) = floor(x / cellSize).toInt()
+
+    private fun row(y: Double) = floor(y / cellSize).toInt()
+
+    private fun key(col: Int, row: Int) = (col.toLong() shl 32) or (row.toLong() and 0xFFFFFFFFL)
+}
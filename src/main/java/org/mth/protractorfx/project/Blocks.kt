@@ -0,0 +1,151 @@
+package org.mth.protractorfx.project
+
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.channels.ReadableByteChannel
+import java.nio.channels.WritableByteChannel
+
+internal const val BUFFER_SIZE = 64 * 1024
+
+/**
+ * Buffered writer of primitive values and blocks to a channel.
+ */
+internal class BlockWriter(private val channel: WritableByteChannel) {
+
+    private val buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN)
+
+    fun putByte(value: Byte) = ensure(1).put(value)
+
+    fun putShort(value: Short) = ensure(2).putShort(value)
+
+    fun putInt(value: Int) = ensure(4).putInt(value)
+
+    fun putDouble(value: Double) = ensure(8).putDouble(value)
+
+    fun putBytes(values: ByteArray) = values.forEach { putByte(it) }
+
+    fun putInts(values: IntArray) {
+        var offset = 0
+
+        while (offset < values.size) {
+            val count = minOf(values.size - offset, ensure(4).remaining() / 4)
+            buffer.asIntBuffer().put(values, offset, count)
+            buffer.position(buffer.position() + count * 4)
+            offset += count
+        }
+    }
+
+    fun putDoubles(values: DoubleArray) {
+        var offset = 0
+
+        while (offset < values.size) {
+            val count = minOf(values.size - offset, ensure(8).remaining() / 8)
+            buffer.asDoubleBuffer().put(values, offset, count)
+            buffer.position(buffer.position() + count * 8)
+            offset += count
+        }
+    }
+
+    fun flush() {
+        buffer.flip()
+
+        while (buffer.hasRemaining())
+            channel.write(buffer)
+
+        buffer.clear()
+    }
+
+    private fun ensure(bytes: Int): ByteBuffer {
+        if (buffer.remaining() < bytes)
+            flush()
+
+        return buffer
+    }
+}
+
+/**
+ * Reader of primitive values and blocks. Without a [channel] the whole file is already in the [buffer], as when
+ * it is memory-mapped; otherwise the buffer is refilled from the channel when needed.
+ */
+internal class BlockReader(buffer: ByteBuffer, private val channel: ReadableByteChannel?) {
+
+    private val buffer = buffer.order(ByteOrder.LITTLE_ENDIAN)
+
+    /**
+     * Read from the [channel] through an empty buffer, refilled when needed.
+     */
+    constructor(channel: ReadableByteChannel) : this(ByteBuffer.allocateDirect(BUFFER_SIZE).limit(0) as ByteBuffer, channel)
+
+    /**
+     * Returns `true` if all the bytes have been read.
+     */
+    fun atEnd(): Boolean {
+        if (buffer.hasRemaining() || channel == null)
+            return !buffer.hasRemaining()
+
+        buffer.clear()
+
+        while (buffer.position() == 0 && channel.read(buffer) >= 0)
+            continue
+
+        buffer.flip()
+
+        return !buffer.hasRemaining()
+    }
+
+    fun getByte() = ensure(1).get()
+
+    fun getShort() = ensure(2).short
+
+    fun getInt() = ensure(4).int
+
+    fun getDouble() = ensure(8).double
+
+    fun getBytes(values: ByteArray) = values.apply { indices.forEach { this[it] = getByte() } }
+
+    fun getInts(values: IntArray): IntArray {
+        var offset = 0
+
+        while (offset < values.size) {
+            val count = minOf(values.size - offset, ensure(4).remaining() / 4)
+            buffer.asIntBuffer().get(values, offset, count)
+            buffer.position(buffer.position() + count * 4)
+            offset += count
+        }
+
+        return values
+    }
+
+    fun getDoubles(values: DoubleArray): DoubleArray {
+        var offset = 0
+
+        while (offset < values.size) {
+            val count = minOf(values.size - offset, ensure(8).remaining() / 8)
+            buffer.asDoubleBuffer().get(values, offset, count)
+            buffer.position(buffer.position() + count * 8)
+            offset += count
+        }
+
+        return values
+    }
+
+    private fun ensure(bytes: Int): ByteBuffer {
+        if (buffer.remaining() >= bytes)
+            return buffer
+
+        if (channel != null) {
+            buffer.compact()
+
+            while (buffer.position() < bytes && channel.read(buffer) >= 0)
+                continue
+
+            buffer.flip()
+        }
+
+        if (buffer.remaining() < bytes)
+            throw IOException("Unexpected end of file")
+
+        return buffer
+    }
+}
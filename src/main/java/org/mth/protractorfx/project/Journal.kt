@@ -0,0 +1,578 @@
+package org.mth.protractorfx.project
+
+import javafx.application.Platform
+import org.mth.protractorfx.*
+import org.mth.protractorfx.log.LogFactory
+import org.mth.protractorfx.model.ChainModel
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.channels.Channels
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption.ATOMIC_MOVE
+import java.nio.file.StandardCopyOption.REPLACE_EXISTING
+import java.nio.file.StandardOpenOption.*
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Append-only journal of the changes made to the chains, used to rebuild the session after a crash.
+ *
+ * The journal file starts with a base project, written at every checkpoint, followed by the records of the changes made
+ * since then. The records are encoded on the JavaFX thread into a memory buffer; a background thread appends them to
+ * the file every [FLUSH_INTERVAL] milliseconds, in a single batch followed by a sync to the disk. A clean [close]
+ * deletes the file, so a journal is left only by a crash.
+ *
+ * The records refer to the chains and to the nodes by id, as the projects do. Undoing an action is journaled as the
+ * changes it makes. The moves are coalesced: only the last location of a dot is written, once per pulse.
+ */
+object Journal {
+
+    private val log = LogFactory.configureLog(Journal::class.java)
+
+    const val MAGIC = 0x4A584650 // "PFXJ" read as little-endian
+    const val VERSION: Short = 2
+
+    /**
+     * Interval between two writes of the records, in milliseconds
+     */
+    const val FLUSH_INTERVAL = 200L
+
+    /**
+     * Size of the journal file beyond which a checkpoint replaces the records with a new base project
+     */
+    const val CHECKPOINT_SIZE = 8L shl 20
+
+    // record types
+    internal const val CHAIN: Byte = 1
+    internal const val CHAIN_REMOVED: Byte = 2
+    internal const val COLOR: Byte = 3
+    internal const val STYLE: Byte = 4
+    internal const val ADD: Byte = 5
+    internal const val REMOVE: Byte = 6
+    internal const val CONNECT: Byte = 7
+    internal const val MOVE: Byte = 8
+    internal const val MEASURE: Byte = 9
+    internal const val UNMEASURE: Byte = 10
+    internal const val LABEL: Byte = 11 // since version 2
+
+    /**
+     * The journal of the session, set with the system property `protractorfx.journal`
+     */
+    @JvmField
+    val DEFAULT_FILE = System.getProperty("protractorfx.journal")?.let { File(it) }
+        ?: File(System.getProperty("user.home"), ".protractorfx/session.journal")
+
+    private var file: File? = null
+    private var image: () -> ImageReference? = { null }
+
+    /**
+     * `true` while the changes are recorded
+     */
+    val isOpen: Boolean get() = file != null
+
+    private var muted = 0
+
+    // encoded on the JavaFX thread, handed to the writer thread under the lock
+    private val lock = Any()
+    private val pendingBytes = ByteArrayOutputStream()
+    private val pending = BlockWriter(Channels.newChannel(pendingBytes))
+    private val batches = ArrayList<Any>()
+
+    // the dots moved since the last pulse, each added once by marking it with the current moveMark: the array is
+    // reused, so that a drag doesn't allocate
+    private var movedDots = arrayOfNulls<Dot>(16)
+    private var movedCount = 0
+    private var moveMark = 1
+
+    private val moveTask = Runnable { flushMoves() }
+
+    private var writer: ScheduledExecutorService? = null
+
+    // used only by the writer thread
+    private var channel: FileChannel? = null
+    private val checkpointRequested = AtomicBoolean(false)
+
+    /**
+     * Start recording the changes into [file], from a checkpoint of the current chains.
+     * @param image Supplier of the reference to the displayed image, saved at every checkpoint
+     */
+    @JvmStatic
+    fun open(file: File, image: () -> ImageReference?) {
+        if (isOpen)
+            return
+
+        file.absoluteFile.parentFile?.mkdirs()
+
+        this.file = file
+        this.image = image
+
+        writer = Executors.newSingleThreadScheduledExecutor { runnable ->
+            Thread(runnable, "journal-writer").apply { isDaemon = true }
+        }.apply {
+            scheduleWithFixedDelay(::write, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.MILLISECONDS)
+        }
+
+        checkpoint()
+    }
+
+    /**
+     * Replace the records with a base project holding the current state of the chains.
+     */
+    @JvmStatic
+    fun checkpoint() {
+        if (!isOpen)
+            return
+
+        clearMoves()
+        val project = ProjectSnapshot.capture(chains, image())
+
+        synchronized(lock) {
+            // the records written so far are part of the new base
+            pending.flush()
+            pendingBytes.reset()
+            batches.clear()
+            batches.add(project)
+        }
+    }
+
+    /**
+     * Stop recording and delete the journal: after a clean exit there is no session to recover.
+     */
+    @JvmStatic
+    fun close() {
+        val file = file ?: return
+
+        clearMoves()
+
+        synchronized(lock) {
+            pending.flush()
+            pendingBytes.reset()
+            batches.clear()
+        }
+
+        writer?.run {
+            // after any write in progress
+            submit {
+                try {
+                    channel?.close()
+                    channel = null
+
+                    Files.deleteIfExists(File(file.path + ".tmp").toPath())
+                    Files.deleteIfExists(file.toPath())
+                } catch (e: IOException) {
+                    log.severe("Cannot delete the journal $file: ${e.message}")
+                }
+            }.get()
+
+            shutdown()
+        }
+
+        writer = null
+        this.file = null
+    }
+
+    /**
+     * Rebuild the session recorded in the [file]: the base project with the changes of the records applied. A record
+     * cut by a crash is ignored.
+     * @return `null` if there is no journal, or it can't be read
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun recover(file: File = DEFAULT_FILE): ProjectData? {
+        if (!file.isFile)
+            return null
+
+        try {
+            FileChannel.open(file.toPath(), READ).use { channel ->
+                val reader = BlockReader(channel)
+
+                if (reader.getInt() != MAGIC)
+                    throw IOException("$file is not a journal")
+
+                val version = reader.getShort()
+                if (version > VERSION)
+                    throw IOException("Unsupported journal version $version")
+
+                reader.getShort() // flags, unused
+
+                val replay = Replay(ProjectFile.read(reader))
+                var records = 0
+
+                try {
+                    while (!reader.atEnd()) {
+                        try {
+                            replay.apply(reader)
+                            records++
+                        } catch (e: IllegalArgumentException) {
+                            // the record has been read entirely: go on with the next one
+                            log.warning("Journal record skipped: ${e.message}")
+                        }
+                    }
+                } catch (e: IOException) {
+                    log.warning("The journal ends with an unreadable record: ${e.message}")
+                }
+
+                log.info("Session recovered from $file: $records records replayed")
+
+                return replay.project()
+            }
+        } catch (e: IOException) {
+            log.severe("Cannot recover the session from $file: ${e.message}")
+            return null
+        }
+    }
+
+    /**
+     * Execute the [block] without recording the changes it makes.
+     */
+    fun <T> muted(block: () -> T): T {
+        muted++
+
+        try {
+            return block()
+        } finally {
+            muted--
+        }
+    }
+
+    internal fun chainCreated(chain: DotChain) = record(CHAIN, chain) {
+        putInt(ProjectSnapshot.toArgb(chain.chainColor.get()))
+        putStyle(ProjectSnapshot.styleOf(chain))
+    }
+
+    internal fun chainRemoved(chain: DotChain) = record(CHAIN_REMOVED, chain) {}
+
+    internal fun colorChanged(chain: DotChain) = record(COLOR, chain) {
+        putInt(ProjectSnapshot.toArgb(chain.chainColor.get()))
+    }
+
+    internal fun styleChanged(chain: DotChain) = record(STYLE, chain) {
+        putStyle(ProjectSnapshot.styleOf(chain))
+    }
+
+    internal fun dotAdded(dot: Dot) = record(ADD, dot.chain) {
+        putInt(dot.id)
+        putDouble(dot.centerX)
+        putDouble(dot.centerY)
+    }
+
+    /**
+     * Record the removal of the [dot], still bound to its id.
+     */
+    internal fun dotRemoved(dot: Dot) = record(REMOVE, dot.chain) {
+        putInt(dot.id)
+    }
+
+    internal fun connected(dot1: Dot, dot2: Dot) = record(CONNECT, dot1.chain) {
+        putInt(dot1.id)
+        putInt(dot2.id)
+    }
+
+    /**
+     * Mark the [dot] as moved: its location is recorded at the next pulse, or before the next record.
+     */
+    internal fun dotMoved(dot: Dot) {
+        if (!isOpen || muted > 0 || dot.journalMark == moveMark)
+            return
+
+        dot.journalMark = moveMark
+
+        if (movedCount == 0)
+            FrameScheduler.post(moveTask)
+
+        if (movedCount == movedDots.size)
+            movedDots = movedDots.copyOf(movedCount * 2)
+
+        movedDots[movedCount++] = dot
+    }
+
+    internal fun measureAdded(angle: Angle) = record(MEASURE, angle.vertex.chain) {
+        putAngle(angle)
+    }
+
+    internal fun measureRemoved(angle: Angle) = record(UNMEASURE, angle.vertex.chain) {
+        putAngle(angle)
+    }
+
+    /**
+     * Record the displacement of the label of the [decorator], after it has been dragged, reset or restored.
+     */
+    internal fun labelMoved(decorator: AngleDecorator) = record(LABEL, decorator.chain) {
+        putAngle(decorator.angle)
+
+        with(decorator.angleLabel) {
+            putDouble(dragTranslation.x)
+            putDouble(dragTranslation.y)
+            putDouble(dragToTranslationAngle)
+        }
+    }
+
+    private inline fun record(type: Byte, chain: DotChain, fields: BlockWriter.() -> Unit) {
+        if (!isOpen || muted > 0)
+            return
+
+        // the moves happened before this change
+        if (movedCount > 0)
+            flushMoves()
+
+        synchronized(lock) {
+            with(pending) {
+                putByte(type)
+                putInt(chain.id)
+                fields()
+            }
+        }
+    }
+
+    private fun flushMoves() {
+        val count = movedCount
+
+        // from now on the records don't flush the moves again, and a new move marks the dot again
+        movedCount = 0
+        moveMark++
+
+        for (i in 0 until count) {
+            val dot = movedDots[i]!!
+            movedDots[i] = null
+
+            // the dots removed in the meantime have already been recorded
+            if (dot.chain.contains(dot))
+                record(MOVE, dot.chain) {
+                    putInt(dot.id)
+                    putDouble(dot.centerX)
+                    putDouble(dot.centerY)
+                }
+        }
+    }
+
+    private fun clearMoves() {
+        movedDots.fill(null, 0, movedCount)
+        movedCount = 0
+        moveMark++
+    }
+
+    private fun BlockWriter.putStyle(style: StyleData) {
+        putInt(style.fontColor)
+        putDouble(style.fontSize)
+        putShort(style.fontWeight.toShort())
+        putByte(if (style.backgroundVisible) 1 else 0)
+        putInt(style.backgroundColor)
+    }
+
+    private fun BlockWriter.putAngle(angle: Angle) {
+        putInt(angle.vertex.id)
+        putInt(angle.extreme1.id)
+        putInt(angle.extreme2.id)
+    }
+
+    /**
+     * Write to the file the checkpoints and the records collected since the last call, in order. Runs on the writer
+     * thread.
+     */
+    private fun write() {
+        val file = file ?: return
+
+        val work = synchronized(lock) {
+            pending.flush()
+
+            if (pendingBytes.size() > 0) {
+                batches.add(pendingBytes.toByteArray())
+                pendingBytes.reset()
+            }
+
+            ArrayList(batches).also { batches.clear() }
+        }
+
+        if (work.isEmpty())
+            return
+
+        try {
+            work.forEach {
+                if (it is ProjectData)
+                    writeCheckpoint(file, it)
+                else
+                    append(file, it as ByteArray)
+            }
+
+            val channel = channel ?: return
+            channel.force(false)
+
+            if (channel.size() > CHECKPOINT_SIZE && checkpointRequested.compareAndSet(false, true))
+                Platform.runLater {
+                    checkpointRequested.set(false)
+                    checkpoint()
+                }
+        } catch (e: IOException) {
+            log.severe("Cannot write the journal $file: ${e.message}")
+        }
+    }
+
+    /**
+     * Replace the journal with a new one, holding only the base [project]. The new file is renamed over the old one,
+     * so a crash leaves either of them.
+     */
+    private fun writeCheckpoint(file: File, project: ProjectData) {
+        val temporary = File(file.path + ".tmp").toPath()
+
+        FileChannel.open(temporary, CREATE, WRITE, TRUNCATE_EXISTING).use { channel ->
+            with(BlockWriter(channel)) {
+                putInt(MAGIC)
+                putShort(VERSION)
+                putShort(0)
+                ProjectFile.write(this, project)
+                flush()
+            }
+
+            channel.force(false)
+        }
+
+        channel?.close()
+        channel = null
+
+        Files.move(temporary, file.toPath(), REPLACE_EXISTING, ATOMIC_MOVE)
+        channel = FileChannel.open(file.toPath(), WRITE, APPEND)
+    }
+
+    private fun append(file: File, bytes: ByteArray) {
+        val channel = channel ?: FileChannel.open(file.toPath(), CREATE, WRITE, APPEND).also { channel = it }
+        val buffer = ByteBuffer.wrap(bytes)
+
+        while (buffer.hasRemaining())
+            channel.write(buffer)
+    }
+
+    /**
+     * Application of the records to a base project, without the JavaFX toolkit.
+     */
+    private class Replay(base: ProjectData) {
+
+        private class Chain(val id: Int, var color: Int, var style: StyleData) {
+            val model = ChainModel()
+            val decorators = LinkedHashMap<Triple<Int, Int, Int>, DecoratorData>()
+            var removed = false
+        }
+
+        private val image = base.image
+        private val chains = LinkedHashMap<Int, Chain>()
+
+        init {
+            base.chains.forEach { data ->
+                val chain = Chain(data.id, data.color, data.style)
+                chains[data.id] = chain
+
+                for (i in data.ids.indices)
+                    chain.model.addWithId(data.ids[i], data.xs[i], data.ys[i])
+
+                for (i in 0 until data.edges.size / 2)
+                    chain.model.connect(data.edges[2 * i], data.edges[2 * i + 1])
+
+                data.decorators.forEach { chain.decorators[Triple(it.vertex, it.extreme1, it.extreme2)] = it }
+            }
+        }
+
+        /**
+         * Read a record and apply it. All its fields are read before any change, so that a truncated record changes
+         * nothing.
+         */
+        fun apply(reader: BlockReader) = with(reader) {
+            val type = getByte()
+            val id = getInt()
+
+            when (type) {
+                CHAIN -> {
+                    val color = getInt()
+                    val style = getStyle()
+
+                    // a removed chain can be created again by an undo
+                    chains[id]?.apply {
+                        this.color = color
+                        this.style = style
+                        removed = false
+                    } ?: chains.put(id, Chain(id, color, style))
+                }
+                CHAIN_REMOVED -> chains[id]?.apply {
+                    removed = true
+                    model.clear()
+                    decorators.clear()
+                }
+                COLOR -> {
+                    val color = getInt()
+                    chains[id]?.color = color
+                }
+                STYLE -> {
+                    val style = getStyle()
+                    chains[id]?.style = style
+                }
+                ADD -> {
+                    val node = getInt()
+                    val x = getDouble()
+                    val y = getDouble()
+
+                    chain(id).apply {
+                        removed = false
+                        model.addWithId(node, x, y)
+                    }
+                }
+                REMOVE -> {
+                    val node = getInt()
+
+                    chain(id).apply {
+                        model.remove(node)
+                        decorators.keys.removeIf { it.first == node || it.second == node || it.third == node }
+                    }
+                }
+                CONNECT -> {
+                    val a = getInt()
+                    val b = getInt()
+                    chain(id).model.connect(a, b)
+                }
+                MOVE -> {
+                    val node = getInt()
+                    val x = getDouble()
+                    val y = getDouble()
+                    chain(id).model.apply {
+                        require(contains(node)) { "No node with id $node" }
+                        setLocation(node, x, y)
+                    }
+                }
+                MEASURE -> {
+                    val key = Triple(getInt(), getInt(), getInt())
+                    chain(id).decorators.getOrPut(key) { DecoratorData(key.first, key.second, key.third, .0, .0, .0) }
+                }
+                UNMEASURE -> {
+                    val key = Triple(getInt(), getInt(), getInt())
+                    chain(id).decorators.remove(key)
+                }
+                LABEL -> {
+                    val key = Triple(getInt(), getInt(), getInt())
+                    val dx = getDouble()
+                    val dy = getDouble()
+                    val angle = getDouble()
+
+                    chain(id).decorators.apply {
+                        require(key in this) { "No measure $key" }
+                        this[key] = DecoratorData(key.first, key.second, key.third, dx, dy, angle)
+                    }
+                }
+                else -> throw IOException("Unknown journal record $type")
+            }
+        }
+
+        fun project() = ProjectData(
+            image,
+            chains.values
+                .filter { !it.removed }
+                .map { ProjectSnapshot.chainData(it.id, it.color, it.style, it.model, ArrayList(it.decorators.values)) }
+        )
+
+        private fun chain(id: Int) = requireNotNull(chains[id]) { "Unknown chain $id" }
+
+        private fun BlockReader.getStyle() =
+            StyleData(getInt(), getDouble(), getShort().toInt(), getByte() != 0.toByte(), getInt())
+    }
+}
@@ -0,0 +1,170 @@
+package org.mth.protractorfx.project
+
+import org.mth.protractorfx.AngleFormatter
+import org.mth.protractorfx.DotChain
+import org.mth.protractorfx.geometry.Geometry
+import org.mth.protractorfx.tool.MeasureUnit
+import java.io.BufferedWriter
+import java.io.IOException
+import java.io.Writer
+import java.nio.file.Files
+import java.nio.file.Path
+
+/**
+ * Export of all the angle measures, one row per measure, to CSV or JSON. The measures are captured on the JavaFX
+ * thread as primitive arrays; the text is then produced on any thread, row by row, straight into a buffered writer.
+ */
+object MeasureExport {
+
+    enum class Format(val extension: String) {
+        CSV("csv"),
+        JSON("json");
+
+        companion object {
+
+            /**
+             * The format matching the extension of the [path], `null` if none matches
+             */
+            @JvmStatic
+            fun byExtension(path: Path) = values().firstOrNull { path.toString().endsWith(".${it.extension}", true) }
+
+            /**
+             * The format matching the extension of the [path], CSV if none matches
+             */
+            @JvmStatic
+            fun of(path: Path) = byExtension(path) ?: CSV
+        }
+    }
+
+    private val COLUMNS = listOf(
+        "chain", "vertex", "extreme1", "extreme2",
+        "vertex_x", "vertex_y", "extreme1_x", "extreme1_y", "extreme2_x", "extreme2_y",
+        "decimal_degrees", "radians", "centesimal_degrees", "sexagesimal_degrees"
+    )
+
+    /**
+     * The measures of all the chains, taken at a given instant. Each row stores the ids of the chain and of the angle
+     * nodes, and the coordinates of the vertex and of the two extremes.
+     */
+    class Snapshot internal constructor(
+        val size: Int,
+        internal val ids: IntArray,
+        internal val coordinates: DoubleArray,
+    )
+
+    @JvmStatic
+    fun capture(chains: Collection<DotChain>): Snapshot {
+        var size = 0
+        chains.forEach { chain -> chain.forEach { size += it.angleDecorators.size } }
+
+        val ids = IntArray(size * 4)
+        val coordinates = DoubleArray(size * 6)
+        var row = 0
+
+        chains.forEach { chain ->
+            chain.forEach { dot ->
+                dot.angleDecorators.forEach {
+                    with(it.angle) {
+                        ids[row * 4] = chain.id
+                        ids[row * 4 + 1] = vertex.id
+                        ids[row * 4 + 2] = extreme1.id
+                        ids[row * 4 + 3] = extreme2.id
+
+                        coordinates[row * 6] = vertex.centerX
+                        coordinates[row * 6 + 1] = vertex.centerY
+                        coordinates[row * 6 + 2] = extreme1.centerX
+                        coordinates[row * 6 + 3] = extreme1.centerY
+                        coordinates[row * 6 + 4] = extreme2.centerX
+                        coordinates[row * 6 + 5] = extreme2.centerY
+                    }
+
+                    row++
+                }
+            }
+        }
+
+        return Snapshot(size, ids, coordinates)
+    }
+
+    /**
+     * Write the [snapshot] to the file [path], in UTF-8.
+     */
+    @JvmStatic
+    @JvmOverloads
+    @Throws(IOException::class)
+    fun write(snapshot: Snapshot, path: Path, format: Format = Format.of(path)) {
+        Files.newBufferedWriter(path).use { write(snapshot, it, format) }
+    }
+
+    @JvmStatic
+    @Throws(IOException::class)
+    fun write(snapshot: Snapshot, writer: Writer, format: Format) {
+        val out = writer as? BufferedWriter ?: BufferedWriter(writer)
+        val formatter = AngleFormatter()
+
+        if (format == Format.CSV)
+            out.write(COLUMNS.joinToString(",", postfix = "\n"))
+        else
+            out.write("[")
+
+        for (row in 0 until snapshot.size) {
+            val ids = snapshot.ids
+            val c = snapshot.coordinates
+            val vx = c[row * 6]
+            val vy = c[row * 6 + 1]
+
+            // the same measure as Angle.measure(), from the second side to the first one
+            val degrees = Geometry.angleBetween(c[row * 6 + 4] - vx, c[row * 6 + 5] - vy, c[row * 6 + 2] - vx,
+                c[row * 6 + 3] - vy)
+            formatter.format(degrees, MeasureUnit.SEXAGESIMAL_DEGREES, 0)
+
+            val values = arrayOf<Any>(
+                ids[row * 4], ids[row * 4 + 1], ids[row * 4 + 2], ids[row * 4 + 3],
+                vx, vy, c[row * 6 + 2], c[row * 6 + 3], c[row * 6 + 4], c[row * 6 + 5],
+                degrees, Math.toRadians(degrees), degrees * 10 / 9, formatter.text
+            )
+
+            if (format == Format.CSV)
+                writeCsvRow(out, values)
+            else
+                writeJsonRow(out, values, row == 0)
+        }
+
+        if (format == Format.JSON)
+            out.write("\n]\n")
+
+        out.flush()
+    }
+
+    private fun writeCsvRow(out: Writer, values: Array<Any>) {
+        values.forEachIndexed { i, value ->
+            if (i > 0)
+                out.write(",")
+
+            if (value is String)
+                out.write("\"${value.replace("\"", "\"\"")}\"")
+            else
+                out.write(value.toString())
+        }
+
+        out.write("\n")
+    }
+
+    private fun writeJsonRow(out: Writer, values: Array<Any>, first: Boolean) {
+        out.write(if (first) "\n  {" else ",\n  {")
+
+        values.forEachIndexed { i, value ->
+            if (i > 0)
+                out.write(", ")
+
+            out.write("\"${COLUMNS[i]}\": ")
+
+            if (value is String)
+                out.write("\"${value.replace("\\", "\\\\").replace("\"", "\\\"")}\"")
+            else
+                out.write(value.toString())
+        }
+
+        out.write("}")
+    }
+}
@@ -0,0 +1,65 @@
+package org.mth.protractorfx.project
+
+/**
+ * Content of a project, detached from the scene graph: it is captured on the JavaFX thread, then written or read by
+ * the [ProjectFile] on any other thread.
+ */
+class ProjectData(
+    val image: ImageReference?,
+    val chains: List<ChainData>,
+)
+
+/**
+ * The image the chains are measured on.
+ * @param region Location and size, in pixels of the file, of the decoded region, or `null` for the whole file
+ * @param subsampling The subsampling the [region] has been decoded with
+ * @param viewport The displayed part of the decoded image, as x, y, width and height, or `null` if not cropped
+ */
+class ImageReference(
+    val path: String,
+    val region: IntArray?,
+    val subsampling: Int,
+    val viewport: DoubleArray?,
+)
+
+/**
+ * A chain stored as primitive blocks. The node [ids] are the ones of the `ChainModel`, so the records referring to a
+ * node (edges, decorators) survive the save and load cycle unchanged.
+ * @param color The color of the chain, as ARGB
+ * @param xs Horizontal coordinates of the nodes, in the order of [ids]
+ * @param ys Vertical coordinates of the nodes, in the order of [ids]
+ * @param edges The ids of the connected nodes, in pairs
+ */
+class ChainData(
+    val id: Int,
+    val color: Int,
+    val style: StyleData,
+    val ids: IntArray,
+    val xs: DoubleArray,
+    val ys: DoubleArray,
+    val edges: IntArray,
+    val decorators: List<DecoratorData>,
+)
+
+/**
+ * The style of the measure labels of a chain. The colors are stored as ARGB.
+ */
+class StyleData(
+    val fontColor: Int,
+    val fontSize: Double,
+    val fontWeight: Int,
+    val backgroundVisible: Boolean,
+    val backgroundColor: Int,
+)
+
+/**
+ * An angle measure, with the displacement of its label dragged by the user.
+ */
+class DecoratorData(
+    val vertex: Int,
+    val extreme1: Int,
+    val extreme2: Int,
+    val dragX: Double,
+    val dragY: Double,
+    val dragAngle: Double,
+)
@@ -0,0 +1,236 @@
+package org.mth.protractorfx.project
+
+import java.io.IOException
+import java.nio.channels.FileChannel
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption.*
+import java.util.*
+
+/**
+ * Binary project format, written and read through NIO channels. All values are little-endian:
+ *
+ * ```
+ * header     int magic "PFXP", short version, short flags (0), int chain count
+ * image      int path length (-1 if none), UTF-8 path, int subsampling, byte region flag, 4 int region,
+ *            byte viewport flag, 4 double viewport
+ * chain      int id, int color, style, int node count, int[] ids (below MAX_NODE_ID), double[] xs, double[] ys,
+ *            int edge count, int[] edge ids in pairs, int decorator count, decorators
+ * style      int font color, double font size, short font weight, byte background visible, int background color
+ * decorator  int vertex, int extreme1, int extreme2, double drag x, double drag y, double drag angle
+ * ```
+ *
+ * The coordinates and the adjacency are written as whole primitive blocks, so that a chain is transferred with a few
+ * bulk copies rather than value by value.
+ */
+object ProjectFile {
+
+    const val MAGIC = 0x50584650 // "PFXP" read as little-endian
+    const val VERSION: Short = 1
+    const val EXTENSION = "pfx"
+
+    /**
+     * Upper bound (exclusive) of the node ids. A file with greater ids is rejected as corrupted, instead of making the
+     * chain allocate its tables up to them.
+     */
+    const val MAX_NODE_ID = 1 shl 24
+
+    /**
+     * `true` if the projects are read by memory-mapping the file, set with the system property
+     * `protractorfx.mappedProjects`
+     */
+    @JvmField
+    val MAPPED_READ = java.lang.Boolean.getBoolean("protractorfx.mappedProjects")
+
+    @JvmStatic
+    @Throws(IOException::class)
+    fun write(path: Path, project: ProjectData) {
+        FileChannel.open(path, CREATE, WRITE, TRUNCATE_EXISTING).use { channel ->
+            with(BlockWriter(channel)) {
+                write(this, project)
+                flush()
+            }
+
+            channel.force(false)
+        }
+    }
+
+    /**
+     * Write the [project] through the [writer], that is not flushed.
+     */
+    internal fun write(writer: BlockWriter, project: ProjectData) = with(writer) {
+        putInt(MAGIC)
+        putShort(VERSION)
+        putShort(0)
+        putInt(project.chains.size)
+
+        writeImage(project.image)
+        project.chains.forEach { writeChain(it) }
+    }
+
+    /**
+     * Read the project stored in [path].
+     * @param mapped If `true` the file is memory-mapped, instead of being read through a buffer
+     */
+    @JvmStatic
+    @JvmOverloads
+    @Throws(IOException::class)
+    fun read(path: Path, mapped: Boolean = MAPPED_READ): ProjectData {
+        FileChannel.open(path, READ).use { channel ->
+            val reader = if (mapped)
+                BlockReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), null)
+            else
+                BlockReader(channel)
+
+            return read(reader)
+        }
+    }
+
+    /**
+     * Read a project through the [reader], leaving it positioned after the last chain.
+     */
+    internal fun read(reader: BlockReader): ProjectData = with(reader) {
+        if (getInt() != MAGIC)
+            throw IOException("Not a project file")
+
+        val version = getShort()
+        if (version > VERSION)
+            throw IOException("Unsupported project version $version")
+
+        getShort() // flags, unused
+        val chainCount = count(getInt())
+
+        val image = readImage()
+        val chains = List(chainCount) { readChain() }
+
+        return ProjectData(image, chains)
+    }
+
+    private fun BlockWriter.writeImage(image: ImageReference?) {
+        if (image == null) {
+            putInt(-1)
+            return
+        }
+
+        val path = image.path.toByteArray(Charsets.UTF_8)
+        putInt(path.size)
+        putBytes(path)
+        putInt(image.subsampling)
+
+        putByte(if (image.region != null) 1 else 0)
+        (image.region ?: IntArray(4)).forEach { putInt(it) }
+
+        putByte(if (image.viewport != null) 1 else 0)
+        (image.viewport ?: DoubleArray(4)).forEach { putDouble(it) }
+    }
+
+    private fun BlockReader.readImage(): ImageReference? {
+        val length = getInt()
+
+        if (length < 0)
+            return null
+
+        val path = String(getBytes(ByteArray(count(length))), Charsets.UTF_8)
+        val subsampling = getInt()
+
+        val hasRegion = getByte() != 0.toByte()
+        val region = IntArray(4) { getInt() }
+
+        val hasViewport = getByte() != 0.toByte()
+        val viewport = DoubleArray(4) { getDouble() }
+
+        return ImageReference(
+            path,
+            if (hasRegion) region else null,
+            maxOf(1, subsampling),
+            if (hasViewport) viewport else null
+        )
+    }
+
+    private fun BlockWriter.writeChain(chain: ChainData) {
+        putInt(chain.id)
+        putInt(chain.color)
+
+        with(chain.style) {
+            putInt(fontColor)
+            putDouble(fontSize)
+            putShort(fontWeight.toShort())
+            putByte(if (backgroundVisible) 1 else 0)
+            putInt(backgroundColor)
+        }
+
+        chain.ids.forEach {
+            if (it >= MAX_NODE_ID)
+                throw IOException("Node id $it of chain ${chain.id} is beyond the format limit")
+        }
+
+        putInt(chain.ids.size)
+        putInts(chain.ids)
+        putDoubles(chain.xs)
+        putDoubles(chain.ys)
+
+        putInt(chain.edges.size / 2)
+        putInts(chain.edges)
+
+        putInt(chain.decorators.size)
+        chain.decorators.forEach {
+            putInt(it.vertex)
+            putInt(it.extreme1)
+            putInt(it.extreme2)
+            putDouble(it.dragX)
+            putDouble(it.dragY)
+            putDouble(it.dragAngle)
+        }
+    }
+
+    private fun BlockReader.readChain(): ChainData {
+        val id = getInt()
+        val color = getInt()
+        val style = StyleData(getInt(), getDouble(), getShort().toInt(), getByte() != 0.toByte(), getInt())
+
+        val size = count(getInt())
+        if (size > MAX_NODE_ID)
+            throw IOException("Invalid node count $size in chain $id")
+
+        val ids = getInts(IntArray(size))
+        val xs = getDoubles(DoubleArray(size))
+        val ys = getDoubles(DoubleArray(size))
+
+        // the records refer to the nodes by id: reject the ones pointing to unknown nodes
+        val known = BitSet()
+        ids.forEach {
+            if (it < 0 || it >= MAX_NODE_ID || known[it])
+                throw IOException("Invalid node id $it in chain $id")
+            known.set(it)
+        }
+
+        val edges = getInts(IntArray(count(getInt()) * 2))
+        edges.forEach { checkNode(known, it, id) }
+
+        val decorators = List(count(getInt())) {
+            DecoratorData(
+                checkNode(known, getInt(), id),
+                checkNode(known, getInt(), id),
+                checkNode(known, getInt(), id),
+                getDouble(),
+                getDouble(),
+                getDouble()
+            )
+        }
+
+        return ChainData(id, color, style, ids, xs, ys, edges, decorators)
+    }
+
+    private fun checkNode(known: BitSet, node: Int, chain: Int): Int {
+        if (node < 0 || !known[node])
+            throw IOException("Unknown node id $node in chain $chain")
+
+        return node
+    }
+
+    private fun count(value: Int): Int {
+        if (value < 0)
+            throw IOException("Corrupted project file: negative count $value")
+
+        return value
+    }
+}
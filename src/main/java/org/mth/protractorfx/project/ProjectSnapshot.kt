@@ -0,0 +1,144 @@
+package org.mth.protractorfx.project
+
+import javafx.scene.layout.Pane
+import javafx.scene.paint.Color
+import javafx.scene.text.FontWeight
+import org.mth.protractorfx.Angle
+import org.mth.protractorfx.AngleDecorator
+import org.mth.protractorfx.DotChain
+import org.mth.protractorfx.model.ChainModel
+import kotlin.math.roundToInt
+
+/**
+ * Conversion between the live chains and the [ProjectData]. Both directions run on the JavaFX thread: the captured
+ * data only holds primitive copies, so it can be written while the user goes on editing the chains.
+ */
+object ProjectSnapshot {
+
+    @JvmStatic
+    fun capture(chains: Collection<DotChain>, image: ImageReference?) = ProjectData(image, chains.map { capture(it) })
+
+    /**
+     * Rebuild the chains of the [project] in the [container], with the ids they had when saved. The [Journal] doesn't
+     * record the rebuilt chains: the caller takes a checkpoint of them.
+     */
+    @JvmStatic
+    fun restore(project: ProjectData, container: Pane): List<DotChain> =
+        Journal.muted { project.chains.map { restore(it, container) } }
+
+    private fun capture(chain: DotChain): ChainData {
+        val decorators = ArrayList<DecoratorData>()
+
+        chain.forEach { dot ->
+            dot.angleDecorators.forEach {
+                decorators.add(
+                    with(it.angle) {
+                        DecoratorData(
+                            vertex.id,
+                            extreme1.id,
+                            extreme2.id,
+                            it.angleLabel.dragTranslation.x,
+                            it.angleLabel.dragTranslation.y,
+                            it.angleLabel.dragToTranslationAngle
+                        )
+                    }
+                )
+            }
+        }
+
+        return chainData(chain.id, toArgb(chain.chainColor.get()), styleOf(chain), chain.model, decorators)
+    }
+
+    /**
+     * Copy the nodes and the edges of the [model] into primitive blocks.
+     */
+    internal fun chainData(
+        id: Int,
+        color: Int,
+        style: StyleData,
+        model: ChainModel,
+        decorators: List<DecoratorData>,
+    ): ChainData {
+        val ids = IntArray(model.size)
+        val xs = DoubleArray(model.size)
+        val ys = DoubleArray(model.size)
+
+        // the degrees count every edge twice, once for each of its ids
+        var edgeIds = 0
+        model.forEachId { edgeIds += model.degree(it) }
+
+        val edges = IntArray(edgeIds)
+        var e = 0
+
+        var i = 0
+        model.forEachId { node ->
+            ids[i] = node
+            xs[i] = model.x(node)
+            ys[i] = model.y(node)
+            i++
+
+            // each edge is seen from both its nodes: keep only the ordered pair
+            model.forEachNeighbor(node) { neighbor ->
+                if (node < neighbor) {
+                    edges[e++] = node
+                    edges[e++] = neighbor
+                }
+            }
+        }
+
+        return ChainData(id, color, style, ids, xs, ys, edges, decorators)
+    }
+
+    internal fun styleOf(chain: DotChain) = with(chain) {
+        StyleData(
+            toArgb(measureLabelFontColor),
+            measureLabelFontSize,
+            measureLabelFontWeight.weight,
+            measureLabelBackgroundVisibility,
+            toArgb(measureLabelBackgroundColor)
+        )
+    }
+
+    private fun restore(data: ChainData, container: Pane): DotChain {
+        val chain = DotChain(container, toColor(data.color), data.id)
+
+        with(chain) {
+            measureLabelFontColor = toColor(data.style.fontColor)
+            measureLabelFontSize = data.style.fontSize
+            measureLabelFontWeight = FontWeight.findByWeight(data.style.fontWeight)
+            measureLabelBackgroundVisibility = data.style.backgroundVisible
+            measureLabelBackgroundColor = toColor(data.style.backgroundColor)
+        }
+
+        chain.restore(data.ids, data.xs, data.ys, data.edges)
+
+        data.decorators.forEach {
+            val vertex = chain.dot(it.vertex)
+            val decorator = AngleDecorator(Angle(vertex, chain.dot(it.extreme1), chain.dot(it.extreme2)))
+
+            if (!vertex.angleDecorators.contains(decorator)) {
+                vertex.angleDecorators.add(decorator)
+                decorator.build()
+                decorator.restoreLabelPosition(it.dragX, it.dragY, it.dragAngle)
+            }
+        }
+
+        return chain
+    }
+
+    internal fun toArgb(color: Color): Int {
+        fun channel(value: Double) = (value * 255).roundToInt()
+
+        return (channel(color.opacity) shl 24) or
+                (channel(color.red) shl 16) or
+                (channel(color.green) shl 8) or
+                channel(color.blue)
+    }
+
+    internal fun toColor(argb: Int): Color = Color.rgb(
+        (argb shr 16) and 0xFF,
+        (argb shr 8) and 0xFF,
+        argb and 0xFF,
+        ((argb ushr 24) and 0xFF) / 255.0
+    )
+}
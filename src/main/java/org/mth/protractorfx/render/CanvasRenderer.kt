@@ -0,0 +1,207 @@
+package org.mth.protractorfx.render
+
+import javafx.event.EventHandler
+import javafx.scene.Node
+import javafx.scene.canvas.Canvas
+import javafx.scene.canvas.GraphicsContext
+import javafx.scene.input.MouseEvent
+import javafx.scene.input.MouseEvent.*
+import javafx.scene.layout.Pane
+import javafx.scene.paint.Color
+import javafx.scene.shape.Arc
+import org.mth.protractorfx.*
+import org.mth.protractorfx.render.LevelOfDetail.Level
+
+/**
+ * Draw the dots, the connectors and the arcs of all the chains on a single [Canvas], instead of creating a node for
+ * each of them. The canvas is redrawn at most once per pulse, after the decorators have been recomputed.
+ *
+ * The canvas is transparent to the mouse: the events on the container are hit tested against the [DotIndex] and
+ * forwarded to the dot under the cursor, which keeps receiving the whole press-drag-release sequence as a node would.
+ */
+object CanvasRenderer {
+
+    private val canvas = Canvas()
+
+    private var container: Pane? = null
+
+    private var dirty = false
+
+    /**
+     * The dot receiving the mouse events, from the press to the click
+     */
+    private var target: Dot? = null
+
+    private val redraw = Runnable {
+        dirty = false
+        redraw()
+    }
+
+    private val forwarder = EventHandler<MouseEvent> { event ->
+        when (event.eventType) {
+            MOUSE_PRESSED -> target = DotIndex.hit(event.x, event.y)
+            MOUSE_DRAGGED, DRAG_DETECTED, MOUSE_RELEASED, MOUSE_CLICKED -> Unit
+            else -> return@EventHandler
+        }
+
+        val dot = target ?: return@EventHandler
+
+        if (Dot.DragSupport.dispatch(dot, event))
+            event.consume()
+
+        if (event.eventType == MOUSE_CLICKED)
+            target = null
+
+        // the handlers may have changed the radius or the selection of the dot
+        invalidate()
+    }
+
+    /**
+     * `true` if the renderer draws the chains of the session
+     */
+    val installed: Boolean get() = container != null
+
+    /**
+     * Add the canvas to the [container] of the dots, behind its current children.
+     */
+    fun install(container: Pane) {
+        if (installed)
+            return
+
+        this.container = container
+
+        with(canvas) {
+            isMouseTransparent = true
+            widthProperty().bind(container.widthProperty())
+            heightProperty().bind(container.heightProperty())
+            widthProperty().addListener { _ -> invalidate() }
+            heightProperty().addListener { _ -> invalidate() }
+        }
+
+        container.children.add(canvas)
+        container.addEventFilter(MouseEvent.ANY, forwarder)
+
+        Selection.addListener { _, _ -> invalidate() }
+
+        invalidate()
+    }
+
+    /**
+     * The index in the [children] of the container right above the canvas, `0` if the renderer isn't installed: the
+     * nodes inserted there are drawn over the canvas, and under the other nodes.
+     */
+    internal fun layerIndex(children: List<Node>) = if (installed) children.indexOf(canvas) + 1 else 0
+
+    /**
+     * Schedule the redraw of the canvas at the next pulse. Nothing is done if the renderer isn't installed.
+     */
+    fun invalidate() {
+        if (dirty || !installed)
+            return
+
+        dirty = true
+        FrameScheduler.postRender(redraw)
+    }
+
+    private fun redraw() {
+        val gc = canvas.graphicsContext2D
+        gc.clearRect(.0, .0, canvas.width, canvas.height)
+
+        chains.forEach { drawChain(gc, it) }
+    }
+
+    private fun drawChain(gc: GraphicsContext, chain: DotChain) {
+        val model = chain.model
+
+        if (model.size == 0)
+            return
+
+        val color: Color = chain.chainColor.get()
+
+        // all the connectors of the chain in a single path
+        gc.stroke = color.desaturate()
+        gc.lineWidth = 1.0
+        gc.beginPath()
+
+        if (LevelOfDetail.current == Level.OVERVIEW) {
+            // just the simplified polyline, without dots and arcs
+            model.forEachSimplifiedEdge(LevelOfDetail.overviewTolerance) { a, b ->
+                gc.moveTo(model.x(a), model.y(a))
+                gc.lineTo(model.x(b), model.y(b))
+            }
+
+            gc.stroke()
+            return
+        }
+
+        model.forEachId { id ->
+            model.forEachNeighbor(id) { neighbor ->
+                // every edge is stored twice, draw it once
+                if (neighbor > id) {
+                    val x1 = model.x(id)
+                    val y1 = model.y(id)
+                    val x2 = model.x(neighbor)
+                    val y2 = model.y(neighbor)
+
+                    if (ViewportCulling.intersects(x1, y1, x2, y2)) {
+                        gc.moveTo(x1, y1)
+                        gc.lineTo(x2, y2)
+                    }
+                }
+            }
+        }
+
+        gc.stroke()
+
+        model.forEachId { id ->
+            val dot = chain.dot(id)
+
+            if (dot.culled)
+                return@forEachId
+
+            val decorators = dot.angleDecorators
+
+            for (i in decorators.indices)
+                drawArc(gc, decorators[i].arc)
+        }
+
+        var fill: Color? = null
+
+        model.forEachId { id ->
+            val dot = chain.dot(id)
+
+            if (dot.culled)
+                return@forEachId
+
+            val dotFill = if (dot.selected) Dot.SELECTED_COLOR else color
+
+            if (dotFill != fill) {
+                fill = dotFill
+                gc.fill = dotFill
+            }
+
+            val r = dot.radius
+            gc.fillOval(model.x(id) - r, model.y(id) - r, 2 * r, 2 * r)
+        }
+    }
+
+    /**
+     * Draw the [arc] recomputed by its decorator, with the same appearance it would have as a node.
+     */
+    private fun drawArc(gc: GraphicsContext, arc: Arc) {
+        if (!arc.isVisible)
+            return
+
+        gc.stroke = arc.stroke
+        gc.lineWidth = arc.strokeWidth
+        gc.strokeArc(
+            arc.centerX - arc.radiusX,
+            arc.centerY - arc.radiusY,
+            2 * arc.radiusX,
+            2 * arc.radiusY,
+            arc.startAngle,
+            arc.length,
+            arc.type
+        )
+    }
+}
@@ -0,0 +1,95 @@
+package org.mth.protractorfx.render
+
+import javafx.beans.property.ReadOnlyObjectProperty
+import javafx.beans.property.ReadOnlyObjectWrapper
+import org.mth.protractorfx.chains
+
+/**
+ * Policy choosing how much detail of the chains is drawn, from the on-screen scale of the dots' container and from the
+ * density of the visible dots. It is evaluated at every [ViewportCulling] pass, and applied to all the chains.
+ *
+ * A level is left only when the measures go past its thresholds by the [HYSTERESIS] factor, so that small scrolls
+ * around a threshold don't make the chains flicker.
+ */
+object LevelOfDetail {
+
+    enum class Level {
+
+        /**
+         * Dots, connectors, arcs and measure labels
+         */
+        FULL,
+
+        /**
+         * Arcs are dropped, and the measure labels of each chain are collapsed into a single badge
+         */
+        REDUCED,
+
+        /**
+         * Only the badges and a simplified polyline of each chain
+         */
+        OVERVIEW
+    }
+
+    const val REDUCED_SCALE = 0.6
+    const val OVERVIEW_SCALE = 0.3
+
+    /**
+     * Visible dots per 100 x 100 screen pixels
+     */
+    const val REDUCED_DENSITY = 10.0
+    const val OVERVIEW_DENSITY = 40.0
+
+    const val HYSTERESIS = 0.8
+
+    /**
+     * Side, in screen pixels, of the cells whose nodes are merged in the simplified polylines
+     */
+    const val OVERVIEW_TOLERANCE = 4.0
+
+    private val level = ReadOnlyObjectWrapper(Level.FULL)
+
+    val levelProperty: ReadOnlyObjectProperty<Level> = level.readOnlyProperty
+
+    val current: Level get() = level.get()
+
+    /**
+     * The scale of the container on the screen, at the last evaluation
+     */
+    var scale = 1.0
+        private set
+
+    /**
+     * The merging distance of the simplified polylines, in container coordinates
+     */
+    val overviewTolerance: Double get() = OVERVIEW_TOLERANCE / scale
+
+    /**
+     * Evaluate the policy and apply the resulting level to all the chains.
+     * @param visibleDots The number of dots in the visible area
+     * @param screenArea The area, in screen pixels, of the visible part of the container
+     */
+    internal fun update(scale: Double, visibleDots: Int, screenArea: Double) {
+        this.scale = scale
+
+        val density = if (screenArea > 0) visibleDots * 10_000 / screenArea else .0
+        level.set(levelFor(scale, density, current))
+
+        chains.forEach { it.applyLevel(current) }
+    }
+
+    /**
+     * Return the level for the given [scale] and [density], coming from the [previous] level.
+     */
+    fun levelFor(scale: Double, density: Double, previous: Level): Level = when {
+        coarse(scale, density, OVERVIEW_SCALE, OVERVIEW_DENSITY, previous == Level.OVERVIEW) -> Level.OVERVIEW
+        coarse(scale, density, REDUCED_SCALE, REDUCED_DENSITY, previous != Level.FULL) -> Level.REDUCED
+        else -> Level.FULL
+    }
+
+    private fun coarse(scale: Double, density: Double, minScale: Double, maxDensity: Double, keep: Boolean) =
+        if (keep)
+            scale <= minScale / HYSTERESIS || density >= maxDensity * HYSTERESIS
+        else
+            scale <= minScale || density >= maxDensity
+}
@@ -0,0 +1,35 @@
+package org.mth.protractorfx.render
+
+/**
+ * The backend drawing the chains. It is chosen once per session, with the system property [PROPERTY] (for example
+ * `-Dprotractorfx.renderer=canvas`), and doesn't change while the application runs.
+ */
+enum class RenderMode {
+
+    /**
+     * Every dot, connector and arc is a node of the scene graph
+     */
+    SCENE_GRAPH,
+
+    /**
+     * Dots, connectors and arcs are drawn by the [CanvasRenderer]; only the measure labels are nodes
+     */
+    CANVAS;
+
+    companion object {
+
+        const val PROPERTY = "protractorfx.renderer"
+
+        /**
+         * The backend of the current session
+         */
+        @JvmStatic
+        val current: RenderMode = when (System.getProperty(PROPERTY, "").lowercase()) {
+            "canvas" -> CANVAS
+            else -> SCENE_GRAPH
+        }
+
+        @JvmStatic
+        val isCanvas: Boolean get() = current == CANVAS
+    }
+}
@@ -0,0 +1,270 @@
+package org.mth.protractorfx.render
+
+import javafx.beans.InvalidationListener
+import javafx.beans.Observable
+import javafx.geometry.BoundingBox
+import javafx.scene.Node
+import javafx.scene.layout.Pane
+import org.mth.protractorfx.*
+import kotlin.math.hypot
+
+/**
+ * Keep in the scene graph only the dots, connectors and angle decorators intersecting the visible part of the
+ * container. The culled elements keep their model state: they are simply detached from the container, and attached
+ * again when they come back into view.
+ *
+ * The visible area is the window mapped into the container coordinates, so it follows every transform applied to the
+ * container or to its ancestors. It is enlarged by [MARGIN] to cover the measure labels, drawn far from their vertex.
+ * A full pass is done only when the visible area changes; a moved or new dot is checked on its own.
+ */
+object ViewportCulling {
+
+    /**
+     * Extra space around the visible area, in container coordinates
+     */
+    const val MARGIN = AngleDecorator.MAX_DISTANCE_FROM_CENTER + 50.0
+
+    private var container: Pane? = null
+
+    private var dirty = false
+
+    // the visible area, margin included; infinite until the first pass
+    private var minX = Double.NEGATIVE_INFINITY
+    private var minY = Double.NEGATIVE_INFINITY
+    private var maxX = Double.POSITIVE_INFINITY
+    private var maxY = Double.POSITIVE_INFINITY
+
+    /**
+     * The dots not culled: the ones visible at the last pass and the ones registered or moved into view since then
+     */
+    private val shown = HashSet<Dot>()
+
+    /**
+     * The dots moved since the last pulse, checked one by one: a move doesn't change the visible area, so the other
+     * dots keep their state. The dots in the array carry the current [movedMark], so that each is added once; the
+     * array is reused, and a drag doesn't allocate.
+     */
+    private var moved = arrayOfNulls<Dot>(16)
+    private var movedCount = 0
+    private var movedMark = 1
+
+    // nodes to put behind everything (connectors and decorators), nodes to put on top (dots) and nodes to remove,
+    // collected by a pass and cleared once applied
+    private val back = ArrayList<Node>()
+    private val front = ArrayList<Node>()
+    private val removed = HashSet<Node>()
+
+    /**
+     * Number of the current full pass, stamped on the dots found in the visible area
+     */
+    private var pass = 0
+
+    private val cullTask = Runnable {
+        dirty = false
+        cull()
+    }
+
+    private val movedTask = Runnable { cullMoved() }
+
+    private val invalidationListener = InvalidationListener { invalidate() }
+
+    val installed: Boolean get() = container != null
+
+    /**
+     * Start culling the children of the [container]. Besides the changes of the container bounds and transforms, a
+     * new pass is done when one of the [triggers] changes.
+     */
+    fun install(container: Pane, vararg triggers: Observable) {
+        if (installed)
+            return
+
+        this.container = container
+
+        container.sceneProperty().addListener(invalidationListener)
+        container.layoutBoundsProperty().addListener(invalidationListener)
+        container.localToSceneTransformProperty().addListener(invalidationListener)
+        triggers.forEach { it.addListener(invalidationListener) }
+
+        invalidate()
+    }
+
+    /**
+     * Schedule a full culling pass at the next pulse, for a change of the visible area.
+     */
+    fun invalidate() {
+        if (dirty || !installed)
+            return
+
+        dirty = true
+        FrameScheduler.post(cullTask)
+    }
+
+    /**
+     * Schedule the check of the [dot] alone at the next pulse, after it has been moved or added.
+     */
+    internal fun moved(dot: Dot) {
+        if (!installed || dot.cullMark == movedMark)
+            return
+
+        dot.cullMark = movedMark
+
+        if (movedCount == 0)
+            FrameScheduler.post(movedTask)
+
+        if (movedCount == moved.size)
+            moved = moved.copyOf(movedCount * 2)
+
+        moved[movedCount++] = dot
+    }
+
+    /**
+     * Returns `true` if the point (x, y) of the container lies in the visible area.
+     */
+    fun isVisible(x: Double, y: Double) = x in minX..maxX && y in minY..maxY
+
+    /**
+     * Returns `true` if the rectangle, in container coordinates, intersects the visible area.
+     */
+    fun intersects(x1: Double, y1: Double, x2: Double, y2: Double) =
+        maxOf(x1, x2) >= minX && minOf(x1, x2) <= maxX && maxOf(y1, y2) >= minY && minOf(y1, y2) <= maxY
+
+    /**
+     * Called by the chains for every new dot, which is materialized until its own check.
+     */
+    internal fun track(dot: Dot) {
+        if (!installed)
+            return
+
+        shown.add(dot)
+        moved(dot)
+    }
+
+    internal fun untrack(dot: Dot) {
+        // left in the moved dots, where it is skipped by its id
+        shown.remove(dot)
+        dot.culled = false
+    }
+
+    private fun cull() {
+        val container = container ?: return
+        val scene = container.scene ?: return
+
+        val bounds = container.sceneToLocal(BoundingBox(.0, .0, scene.width, scene.height)) ?: return
+        minX = bounds.minX - MARGIN
+        minY = bounds.minY - MARGIN
+        maxX = bounds.maxX + MARGIN
+        maxY = bounds.maxY + MARGIN
+
+        val pass = ++pass
+
+        DotIndex.forEachInRectangle(minX, minY, maxX, maxY) {
+            it.cullPass = pass
+            show(it)
+        }
+
+        // the selected dots are kept, since they may be the target of a drag
+        shown.removeIf { dot ->
+            when {
+                dot.cullPass == pass || dot.selected -> false
+                dot.id < 0 -> true
+                else -> {
+                    hide(dot)
+                    true
+                }
+            }
+        }
+
+        // the pass has covered the moved dots too
+        clearMoved()
+
+        chains.forEach { it.cullConnectors(back, removed) }
+
+        apply(container)
+
+        val transform = container.localToSceneTransform
+        LevelOfDetail.update(hypot(transform.mxx, transform.myx), shown.size, scene.width * scene.height)
+
+        CanvasRenderer.invalidate()
+    }
+
+    /**
+     * Show or hide each moved dot, and the connectors incident to it, by its own position.
+     */
+    private fun cullMoved() {
+        val container = container ?: return
+
+        for (i in 0 until movedCount) {
+            val dot = moved[i]!!
+
+            // removed from its chain in the meantime
+            if (dot.id < 0)
+                continue
+
+            if (isVisible(dot.centerX, dot.centerY))
+                show(dot)
+            else if (!dot.selected && shown.remove(dot))
+                hide(dot)
+
+            val connectors = dot.connectors
+
+            for (j in connectors.indices)
+                connectors[j].cull(back, removed)
+        }
+
+        clearMoved()
+        apply(container)
+    }
+
+    private fun clearMoved() {
+        moved.fill(null, 0, movedCount)
+        movedCount = 0
+        movedMark++
+    }
+
+    private fun show(dot: Dot) {
+        if (!shown.add(dot) && !dot.culled)
+            return
+
+        if (dot.culled) {
+            dot.culled = false
+
+            if (!RenderMode.isCanvas)
+                front.add(dot)
+        }
+
+        dot.angleDecorators.forEach { it.attach(back) }
+    }
+
+    private fun hide(dot: Dot) {
+        dot.culled = true
+
+        if (!RenderMode.isCanvas)
+            removed.add(dot)
+
+        dot.angleDecorators.forEach { it.detach(removed) }
+    }
+
+    /**
+     * Apply the changes to the children of the [container]. The nodes going back are placed above the canvas of the
+     * [CanvasRenderer], if installed, which stays the lowest layer.
+     */
+    private fun apply(container: Pane) {
+        if (back.isEmpty() && front.isEmpty() && removed.isEmpty())
+            return
+
+        with(container.children) {
+            if (removed.isNotEmpty())
+                removeAll(removed)
+            if (back.isNotEmpty())
+                addAll(CanvasRenderer.layerIndex(this), back)
+            if (front.isNotEmpty())
+                addAll(front)
+        }
+
+        back.clear()
+        front.clear()
+        removed.clear()
+
+        CanvasRenderer.invalidate()
+    }
+}
@@ -0,0 +1,51 @@
+package org.mth.protractorfx.tool
+
+import org.mth.protractorfx.DotChain
+import org.mth.protractorfx.FrameScheduler
+import org.mth.protractorfx.command.Action
+import org.mth.protractorfx.command.Redoable
+import org.mth.protractorfx.command.Sized
+
+/**
+ * An edit of the structure of some chains, undone and redone by switching the chains to the versions taken before and
+ * after it. The versions share the nodes the edit didn't touch, so the history retains only the changed ones, and
+ * switching costs as much as the changes, however long the chains are.
+ */
+abstract class ChainEditAction : Action, Redoable, Sized {
+
+    private var before: List<Pair<DotChain, DotChain.Snapshot>> = emptyList()
+    private var after: List<Pair<DotChain, DotChain.Snapshot>> = emptyList()
+
+    /**
+     * The chains the edit is going to change
+     */
+    protected abstract fun chains(): Collection<DotChain>
+
+    /**
+     * Make the change.
+     * @return `false` if nothing has been changed
+     */
+    protected abstract fun edit(): Boolean
+
+    override fun execute(): Boolean {
+        before = chains().distinct().map { it to it.snapshot() }
+
+        if (!edit())
+            return false
+
+        after = before.map { (chain, _) -> chain to chain.snapshot() }
+
+        return true
+    }
+
+    override fun undo() = FrameScheduler.deferred {
+        before.forEach { (chain, snapshot) -> chain.restore(snapshot) }
+    }
+
+    override fun redo() = FrameScheduler.deferred {
+        after.forEach { (chain, snapshot) -> chain.restore(snapshot) }
+    }
+
+    override val sizeInBytes: Long
+        get() = before.sumOf { it.second.sizeInBytes } + after.sumOf { it.second.sizeInBytes }
+}
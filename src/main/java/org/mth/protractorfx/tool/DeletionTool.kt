@@ -6,8 +6,6 @@ import javafx.scene.input.KeyCode
 import javafx.scene.input.KeyCodeCombination
 import javafx.scene.input.MouseEvent
 import org.mth.protractorfx.*
-import org.mth.protractorfx.command.Action
-import java.util.*
 
 object DeletionTool : AbstractTool() {
 
@@ -22,94 +20,86 @@ object DeletionTool : AbstractTool() {
             Point2D(mouseEvent.x, mouseEvent.y).subtract(pane.boundsInParent.minX, pane.boundsInParent.minY)
 
         // find the dot under the cursor and remove it
-        for (dot in chains.flatten()) {
-            if (dot.getCenter().subtract(coordinates).magnitude() < dot.radius) {
-                if (dot.isLeaf())
-                    execute(DeleteSingleDotAction(dot))
-                break
-            }
+        DotIndex.hit(coordinates.x, coordinates.y)?.let { dot ->
+            if (dot.isLeaf())
+                execute(DeleteSingleDotAction(dot.chain, dot.id))
         }
     }
 
     /**
-     * Removes the nodes actually selected.
+     * Removes the nodes actually selected. Undo and redo switch the chains between their versions before and after the
+     * deletion.
      */
-    class DeleteSelectedDotsAction(override val name: String = "delete-selection") : Action {
+    class DeleteSelectedDotsAction(override val name: String = "delete-selection") : ChainEditAction() {
 
-        data class DotPair(val parent: Optional<Dot>, val leaf: Dot)
+        override fun chains() = Selection.map { it.chain }
 
-        /**
-         * A list containing the deleted nodes, in order of deletion
-         */
-        private val deletionList = Stack<DotPair>()
+        override fun edit(): Boolean = Selection.batch {
+            val deleted = deletableDots(Selection.selectedDots())
 
-        override fun execute(): Boolean {
-            var leaves = Selection.selectedDots().filter { it.isLeaf() }
+            deleted.groupBy { it.chain }.forEach { (chain, dots) -> chain.removeDots(dots) }
+            Selection.clear()
 
-            while (leaves.isNotEmpty()) {
-                leaves.forEach { dot ->
-                    val neighbors = dot.neighbors()
+            deleted.isNotEmpty()
+        }
+    }
 
-                    if (neighbors.isNotEmpty())
-                        deletionList.push(DotPair(
-                            parent = Optional.of(neighbors.first()), // it's a leaf, only one neighborhood
-                            leaf = dot
-                        ))
-                    else deletionList.push(DotPair(parent = Optional.empty(), leaf = dot))
+    /**
+     * The dots of the [selection] that can be deleted keeping the chains connected: the leaves, then the ones left as
+     * leaves by their deletion, and so on. The degrees are counted down in a single pass over the selected subgraph,
+     * in O(n) for n selected dots.
+     * @return The deletable dots, in order of deletion
+     */
+    fun deletableDots(selection: Collection<Dot>): List<Dot> {
+        val degrees = HashMap<Dot, Int>(selection.size * 2)
+        val queue = ArrayDeque<Dot>()
 
-                    dot.removeFromChain()
-                    Selection.unselect(dot)
-                }
+        selection.forEach { dot ->
+            val degree = dot.chain.degree(dot)
+            degrees[dot] = degree
 
-                leaves = Selection.selectedDots().filter { it.isLeaf() }
-            }
+            if (degree < 2)
+                queue.add(dot)
+        }
 
-            Selection.clear()
+        val deleted = ArrayList<Dot>(queue.size)
 
-            return true
-        }
+        while (queue.isNotEmpty()) {
+            val dot = queue.removeFirst()
+            deleted.add(dot)
 
-        override fun undo() {
-            deletionList.forEach { dotPair ->
-                val (parent, dot) = dotPair
-
-                parent.ifPresentOrElse({
-                    it.chain.run {
-                        addDot(dot)
-                        connect(dot, it)
-                    }
-                }, {
-                    val dotChain = dot.chain
-                    chains.add(dotChain)
-                    dotChain.addDot(dot)
-                })
+            dot.chain.model.forEachNeighbor(dot.id) { id ->
+                val neighbor = dot.chain.dot(id)
+                val degree = degrees[neighbor]
+
+                // a selected neighbor becomes a leaf: every dot is queued once, since the degrees only decrease
+                if (degree != null) {
+                    degrees[neighbor] = degree - 1
+
+                    if (degree == 2)
+                        queue.add(neighbor)
+                }
             }
         }
-    }
 
-    private class DeleteSingleDotAction(val dot: Dot, override val name: String = "delete-single") : Action {
-        var parent: Dot? = null
+        return deleted
+    }
 
-        override fun execute(): Boolean {
-            val neighbors = dot.neighbors()
+    /**
+     * Removes the leaf [id] of the [chain]. The node is held by its id, as the view is dropped by the deletion.
+     */
+    private class DeleteSingleDotAction(
+        private val chain: DotChain,
+        private val id: Int,
+        override val name: String = "delete-single"
+    ) : ChainEditAction() {
 
-            // if it is not an isolated node, then set the parent node
-            if (neighbors.isNotEmpty())
-                parent = neighbors.first()
+        override fun chains() = listOf(chain)
 
-            dot.removeFromChain()
+        override fun edit(): Boolean {
+            chain.dot(id).removeFromChain()
 
             return true
         }
-
-        override fun undo() {
-            if (parent == null) {
-
-            } else
-                with(parent!!.chain) {
-                    addDot(dot)
-                    connect(dot, parent!!)
-                }
-        }
     }
-}
\ No newline at end of file
+}
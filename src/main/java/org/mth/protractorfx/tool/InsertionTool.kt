@@ -7,8 +7,8 @@ import javafx.scene.input.KeyCodeCombination
 import javafx.scene.input.MouseEvent
 import org.mth.protractorfx.CURSOR_INSERT_DOT
 import org.mth.protractorfx.Dot
+import org.mth.protractorfx.DotChain
 import org.mth.protractorfx.Selection
-import org.mth.protractorfx.command.Action
 import org.mth.protractorfx.command.CommandManager
 import org.mth.protractorfx.log.LogFactory
 import org.mth.protractorfx.pane
@@ -18,6 +18,14 @@ object InsertionTool : AbstractTool() {
 
     val log: Logger = LogFactory.configureLog(InsertionTool::class.java)
 
+    init {
+        // without a selected dot there is no parent for the new dots
+        Selection.addListener { _, _ ->
+            if (active && Selection.isEmpty())
+                deactivate()
+        }
+    }
+
     override val cursor: Cursor
         get() = CURSOR_INSERT_DOT
 
@@ -63,15 +71,24 @@ object InsertionTool : AbstractTool() {
         }
     }
 
+    /**
+     * Adds a dot at the [coordinates], connected to the node [parentId] of the [chain]. The parent is held by its id,
+     * so the history keeps no view.
+     */
     class NewDotAction(
-        coordinates: Point2D,
-        private val parentDot: Dot,
+        private val coordinates: Point2D,
+        private val chain: DotChain,
+        private val parentId: Int,
         override val name: String = "insert_dot"
-    ) : Action {
-        private val newDot: Dot = Dot(coordinates.x, coordinates.y, parentDot.chain)
+    ) : ChainEditAction() {
 
-        override fun execute(): Boolean {
-            val chain = newDot.chain
+        constructor(coordinates: Point2D, parentDot: Dot) : this(coordinates, parentDot.chain, parentDot.id)
+
+        override fun chains() = listOf(chain)
+
+        override fun edit(): Boolean {
+            val parentDot = chain.dot(parentId)
+            val newDot = Dot(coordinates.x, coordinates.y, chain)
 
             // add a new Dot to the chain
             chain.apply {
@@ -84,9 +101,5 @@ object InsertionTool : AbstractTool() {
 
             return true
         }
-
-        override fun undo() {
-            newDot.removeFromChain()
-        }
     }
-}
\ No newline at end of file
+}
@@ -25,7 +25,7 @@ object MeasureTool : AbstractTool() {
      * Put an [AngleDecorator] around the angle nearest to the mouse click
      */
     private fun measureAngle(mousePoint: Point2D) {
-        val nearestDot = getNearestDot(mousePoint, chains.flatten(), true)
+        val nearestDot = getNearestDot(mousePoint, true) ?: return
         val neighbors = nearestDot.neighbors()
 
         val anglesFromMouse = mutableListOf<Pair<Dot, Double>>()
@@ -54,7 +54,7 @@ object MeasureTool : AbstractTool() {
     class MeasureAction(private val mousePoint: Point2D, override val name: String) : Action {
 
         override fun execute(): Boolean {
-            val nearestDot = getNearestDot(mousePoint, chains.flatten(), true)
+            val nearestDot = getNearestDot(mousePoint, true) ?: return false
             val neighbors = nearestDot.neighbors()
 
             val anglesFromMouse = mutableListOf<Pair<Dot, Double>>()
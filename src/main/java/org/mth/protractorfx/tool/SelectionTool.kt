@@ -19,15 +19,25 @@ object SelectionTool : AbstractTool() {
     }
 
     override fun onRelease(mouseEvent: MouseEvent) {
-        // with shift down, maintain the previous selected dots
-        if (!mouseEvent.isShiftDown) {
-            Selection.clear()
+        Selection.batch {
+            // with shift down, maintain the previous selected dots
+            if (!mouseEvent.isShiftDown) {
+                Selection.clear()
+            }
+
+            // query the index with the selection bounds enlarged by the dot radius, then refine on the circle shape
+            with(SelectionRectangle.boundsInParent) {
+                DotIndex.inRectangle(
+                    minX - Dot.DOT_RADIUS,
+                    minY - Dot.DOT_RADIUS,
+                    maxX + Dot.DOT_RADIUS,
+                    maxY + Dot.DOT_RADIUS
+                )
+            }
+                .filter { SelectionRectangle.isDotInSelection(it) }
+                .forEach { Selection.addToSelection(it) }
         }
 
-        chains.flatten()
-            .filter { SelectionRectangle.isDotInSelection(it) }
-            .forEach { Selection.addToSelection(it) }
-
         SelectionRectangle.stopSelection()
         deactivate()
     }
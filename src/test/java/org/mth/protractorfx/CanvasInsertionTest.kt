@@ -0,0 +1,44 @@
+package org.mth.protractorfx
+
+import javafx.geometry.Point2D
+import javafx.scene.layout.Pane
+import javafx.scene.paint.Color
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertSame
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import org.mth.protractorfx.command.CommandManager
+import org.mth.protractorfx.render.RenderMode
+import org.mth.protractorfx.tool.InsertionTool
+
+/**
+ * With the canvas backend the dots never get the keyboard focus: the insertion tool must find its parent dot anyway.
+ */
+class CanvasInsertionTest {
+
+    init {
+        System.setProperty(RenderMode.PROPERTY, "canvas")
+    }
+
+    @Test
+    fun insertsNextToTheSelectedDot() = FxToolkit.runOnFxThread {
+        assertTrue(RenderMode.isCanvas)
+
+        val chain = DotChain(Pane(), Color.BLACK)
+        val dot = Dot(10.0, 10.0, chain)
+        chain.addDot(dot)
+
+        Selection.select(dot)
+        assertSame(dot, Selection.selectedDot().get())
+
+        CommandManager.execute(InsertionTool.NewDotAction(Point2D(30.0, 10.0), Selection.selectedDot().get()))
+
+        assertEquals(2, chain.size)
+        assertEquals(1, chain.degree(dot))
+
+        // the new dot becomes the current one, the parent of the next insertion
+        val inserted = Selection.selectedDot().get()
+        assertEquals(30.0, inserted.centerX)
+        assertTrue(chain.contains(inserted))
+    }
+}
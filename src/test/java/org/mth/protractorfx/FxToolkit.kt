@@ -0,0 +1,44 @@
+package org.mth.protractorfx
+
+import javafx.application.Platform
+import org.junit.jupiter.api.Assumptions.assumeTrue
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.TimeUnit
+
+/**
+ * Starts the JavaFX toolkit once for the tests that need it. Without a display the toolkit can't start, and those
+ * tests are skipped.
+ */
+object FxToolkit {
+
+    private val started: Boolean by lazy {
+        try {
+            val future = CompletableFuture<Unit>()
+            Platform.startup { future.complete(Unit) }
+            future.get(10, TimeUnit.SECONDS)
+            true
+        } catch (e: Throwable) {
+            false
+        }
+    }
+
+    /**
+     * Run the [block] on the JavaFX thread, waiting for its result. The calling test is skipped if the toolkit isn't
+     * available.
+     */
+    fun <T> runOnFxThread(block: () -> T): T {
+        assumeTrue(started, "JavaFX toolkit not available")
+
+        val future = CompletableFuture<T>()
+
+        Platform.runLater {
+            try {
+                future.complete(block())
+            } catch (e: Throwable) {
+                future.completeExceptionally(e)
+            }
+        }
+
+        return future.get(10, TimeUnit.SECONDS)
+    }
+}
@@ -0,0 +1,133 @@
+package org.mth.protractorfx.model
+
+import org.junit.jupiter.api.Assertions.assertArrayEquals
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertSame
+import org.junit.jupiter.api.Test
+
+class ChainModelTest {
+
+    /**
+     * The content of a model: coordinates and sorted neighbors of every node, by id
+     */
+    private fun describe(model: ChainModel): Map<Int, Triple<Double, Double, List<Int>>> {
+        val nodes = LinkedHashMap<Int, Triple<Double, Double, List<Int>>>()
+
+        model.forEachId { id ->
+            val neighbors = ArrayList<Int>()
+            model.forEachNeighbor(id) { neighbors.add(it) }
+            nodes[id] = Triple(model.x(id), model.y(id), neighbors.sorted())
+        }
+
+        return nodes
+    }
+
+    /**
+     * A path 0 - 1 - 2 - 3, along the x axis
+     */
+    private fun path(): ChainModel = ChainModel().apply {
+        repeat(4) { add(it * 10.0, .0) }
+        repeat(3) { connect(it, it + 1) }
+    }
+
+    @Test
+    fun restoreSwitchesBetweenVersionsInBothDirections() {
+        val model = path()
+        model.remove(2)
+        val before = model.snapshot()
+        val beforeContent = describe(model)
+
+        // the free id 2 is reused, then new ids are added
+        assertEquals(2, model.add(25.0, 5.0))
+        assertEquals(4, model.add(40.0, .0))
+        assertEquals(5, model.add(50.0, .0))
+        model.connect(1, 2)
+        model.connect(2, 3)
+        model.connect(3, 4)
+        model.connect(4, 5)
+        model.setLocation(0, -1.0, -2.0)
+        model.disconnect(0, 1)
+
+        val after = model.snapshot()
+        val afterContent = describe(model)
+
+        assertArrayEquals(intArrayOf(0, 1, 2, 3, 4, 5), model.restore(before))
+        assertEquals(beforeContent, describe(model))
+        assertEquals(3, model.size)
+
+        assertArrayEquals(intArrayOf(0, 1, 2, 3, 4, 5), model.restore(after))
+        assertEquals(afterContent, describe(model))
+        assertEquals(6, model.size)
+
+        // restoring the current version changes nothing
+        assertEquals(0, model.restore(after).size)
+        assertSame(after, model.snapshot())
+    }
+
+    @Test
+    fun restoreFreesTheIdsOfTheRemovedNodes() {
+        val model = path()
+        model.remove(2)
+        val before = model.snapshot()
+
+        model.add(25.0, .0)
+        model.add(40.0, .0)
+        model.add(50.0, .0)
+        model.snapshot()
+
+        model.restore(before)
+
+        // the ids of the nodes dropped by the restore are reused before any new one
+        assertEquals(setOf(2, 4, 5), setOf(model.add(.0, .0), model.add(.0, .0), model.add(.0, .0)))
+        assertEquals(6, model.add(.0, .0))
+    }
+
+    @Test
+    fun restoreTakesTheIdsOfTheRestoredNodes() {
+        val model = path()
+        val full = model.snapshot()
+
+        model.remove(1)
+        model.remove(3)
+        model.snapshot()
+
+        model.restore(full)
+        assertEquals(describe(path()), describe(model))
+
+        // no id is left free
+        assertEquals(4, model.add(.0, .0))
+    }
+
+    @Test
+    fun restoreOfAnEmptyModel() {
+        val model = ChainModel()
+        val empty = model.snapshot()
+        assertSame(ChainState.EMPTY, empty)
+
+        val other = path()
+        val content = describe(other)
+
+        model.restore(other.snapshot())
+        assertEquals(content, describe(model))
+
+        model.restore(empty)
+        assertEquals(0, model.size)
+        assertEquals(emptyMap<Int, Any>(), describe(model))
+    }
+
+    @Test
+    fun snapshotCopiesOnlyTheChangedNodes() {
+        val model = path()
+        assertEquals(4, model.snapshot().copiedNodes)
+
+        model.setLocation(1, 11.0, 1.0)
+        model.setLocation(1, 12.0, 1.0)
+        val state = model.snapshot()
+
+        assertEquals(1, state.copiedNodes)
+        assertEquals(4, state.size)
+
+        // no change: the same version
+        assertSame(state, model.snapshot())
+    }
+}
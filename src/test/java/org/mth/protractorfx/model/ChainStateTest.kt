@@ -0,0 +1,131 @@
+package org.mth.protractorfx.model
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNotNull
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+
+class ChainStateTest {
+
+    private fun differences(a: ChainState, b: ChainState): List<Int> {
+        val ids = ArrayList<Int>()
+        a.forEachDifference(b) { ids.add(it) }
+        return ids
+    }
+
+    @Test
+    fun trieDeepensAcrossTheBranchBoundaries() {
+        val model = ChainModel()
+        val ids = intArrayOf(0, 31, 32, 33, 1023, 1024, 1025, 32767, 32768, 40000)
+        val versions = ArrayList<ChainState>()
+
+        // each insertion can add a level to the trie
+        ids.forEach {
+            model.addWithId(it, it.toDouble(), -it.toDouble())
+            versions.add(model.snapshot())
+        }
+
+        versions.forEachIndexed { i, state ->
+            assertEquals(i + 1, state.size)
+
+            ids.forEachIndexed { j, id ->
+                val node = state.node(id)
+
+                if (j <= i) {
+                    assertNotNull(node, "node $id in version $i")
+                    assertEquals(id.toDouble(), node!!.x)
+                    assertEquals(-id.toDouble(), node.y)
+                } else
+                    assertNull(node, "node $id in version $i")
+            }
+        }
+
+        // the ids between the added ones are free, and out of range ids are not found
+        assertNull(versions.last().node(500))
+        assertNull(versions.last().node(-1))
+        assertNull(versions.last().node(1 shl 20))
+    }
+
+    @Test
+    fun sequentialInsertionsAreAllReachable() {
+        val model = ChainModel()
+
+        for (id in 0 until 1100) {
+            assertEquals(id, model.add(id * .5, .0))
+
+            if (id > 0)
+                model.connect(id - 1, id)
+
+            // snapshot around the boundaries, with many changes pending in between
+            if (id == 31 || id == 32 || id == 1023 || id == 1024) {
+                val state = model.snapshot()
+
+                for (other in 0..id)
+                    assertEquals(other * .5, state.node(other)!!.x)
+            }
+        }
+
+        val state = model.snapshot()
+        val copy = ChainModel()
+        copy.restore(state)
+
+        assertEquals(1100, copy.size)
+        assertEquals(1098, copy.neighbor(1099, 0))
+        assertEquals(2, copy.degree(1024))
+    }
+
+    @Test
+    fun differenceBetweenVersionsOfDifferentDepth() {
+        val model = ChainModel()
+        repeat(10) { model.add(it.toDouble(), .0) }
+        val shallow = model.snapshot()
+
+        model.setLocation(5, 50.0, .0)
+        model.addWithId(1024, 1.0, 1.0)
+        val deep = model.snapshot()
+
+        assertEquals(listOf(5, 1024), differences(shallow, deep))
+        assertEquals(listOf(5, 1024), differences(deep, shallow))
+
+        // three levels apart
+        model.addWithId(40000, 2.0, 2.0)
+        model.remove(0)
+        val deeper = model.snapshot()
+
+        assertEquals(listOf(0, 5, 1024, 40000), differences(shallow, deeper))
+        assertEquals(listOf(0, 40000), differences(deep, deeper))
+        assertEquals(listOf(0, 40000), differences(deeper, deep))
+    }
+
+    @Test
+    fun equalVersionsHaveNoDifference() {
+        val model = ChainModel()
+        repeat(100) { model.add(it.toDouble(), .0) }
+        val state = model.snapshot()
+
+        assertTrue(differences(state, state).isEmpty())
+        assertTrue(differences(ChainState.EMPTY, ChainState.EMPTY).isEmpty())
+        assertEquals((0 until 100).toList(), differences(ChainState.EMPTY, state))
+    }
+
+    @Test
+    fun restoreAcrossDepths() {
+        val model = ChainModel()
+        repeat(3) { model.add(it.toDouble(), .0) }
+        val shallow = model.snapshot()
+
+        model.addWithId(2000, 5.0, 5.0)
+        model.connect(0, 2000)
+        val deep = model.snapshot()
+
+        assertEquals(listOf(0, 2000), model.restore(shallow).toList())
+        assertEquals(3, model.size)
+        assertEquals(0, model.degree(0))
+
+        assertEquals(listOf(0, 2000), model.restore(deep).toList())
+        assertEquals(4, model.size)
+        assertEquals(2000, model.neighbor(0, 0))
+        assertEquals(5.0, model.x(2000))
+    }
+}
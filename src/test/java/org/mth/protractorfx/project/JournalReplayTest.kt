@@ -0,0 +1,222 @@
+package org.mth.protractorfx.project
+
+import org.junit.jupiter.api.Assertions.assertArrayEquals
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.io.File
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption.CREATE
+import java.nio.file.StandardOpenOption.TRUNCATE_EXISTING
+import java.nio.file.StandardOpenOption.WRITE
+
+/**
+ * Recovery of hand-written journals: the replay works on the models only, without the JavaFX toolkit.
+ */
+class JournalReplayTest {
+
+    @TempDir
+    lateinit var dir: Path
+
+    private val style = StyleData(0xFF000000.toInt(), 12.0, 400, true, 0xFFFFE4C4.toInt())
+
+    @Test
+    fun replaysTheRecordsOnTheBase() {
+        val project = recover {
+            record(Journal.ADD, 1) { node(3, 40.0, 0.0) }
+            record(Journal.CONNECT, 1) { putInt(2); putInt(3) }
+            record(Journal.MOVE, 1) { node(0, -5.0, 7.5) }
+            record(Journal.REMOVE, 1) { putInt(1) }
+            record(Journal.COLOR, 1) { putInt(0x12345678) }
+        }
+
+        with(project.chains.single()) {
+            assertEquals(0x12345678, color)
+            assertArrayEquals(intArrayOf(0, 2, 3), ids)
+            assertArrayEquals(doubleArrayOf(-5.0, 20.0, 40.0), xs)
+            assertArrayEquals(doubleArrayOf(7.5, 0.0, 0.0), ys)
+            assertArrayEquals(intArrayOf(2, 3), edges)
+
+            // the measure on the removed node is gone
+            assertTrue(decorators.isEmpty())
+        }
+    }
+
+    @Test
+    fun truncatedTailIsIgnored() {
+        val file = journal {
+            record(Journal.ADD, 1) { node(3, 40.0, 0.0) }
+
+            // a move cut by a crash after its first coordinate
+            putByte(Journal.MOVE)
+            putInt(1)
+            putInt(0)
+            putDouble(99.0)
+        }
+
+        with(Journal.recover(file)!!.chains.single()) {
+            assertArrayEquals(intArrayOf(0, 1, 2, 3), ids)
+            assertEquals(0.0, xs[0])
+            assertEquals(0.0, ys[0])
+        }
+    }
+
+    @Test
+    fun truncatedBaseIsNotRecovered() {
+        val file = journal {}
+        val bytes = Files.readAllBytes(file.toPath())
+        Files.write(file.toPath(), bytes.copyOf(bytes.size - 4))
+
+        assertNull(Journal.recover(file))
+    }
+
+    @Test
+    fun invalidRecordsAreSkipped() {
+        val project = recover {
+            record(Journal.MOVE, 1) { node(9, 1.0, 1.0) } // unknown node
+            record(Journal.ADD, 5) { node(0, 1.0, 1.0) } // unknown chain
+            record(Journal.ADD, 1) { node(2, 1.0, 1.0) } // id already used
+            record(Journal.CONNECT, 1) { putInt(0); putInt(9) } // unknown node
+            record(Journal.LABEL, 1) { angle(0, 1, 2); putDouble(1.0); putDouble(2.0); putDouble(.5) } // no measure
+            record(Journal.MOVE, 1) { node(2, 25.0, 1.0) }
+        }
+
+        with(project.chains.single()) {
+            assertArrayEquals(intArrayOf(0, 1, 2), ids)
+            assertArrayEquals(doubleArrayOf(0.0, 10.0, 25.0), xs)
+            assertArrayEquals(doubleArrayOf(0.0, 0.0, 1.0), ys)
+            assertArrayEquals(intArrayOf(0, 1, 1, 2), edges)
+            assertEquals(1, decorators.size)
+        }
+    }
+
+    @Test
+    fun removedChainCanBeAddedAgain() {
+        val project = recover {
+            record(Journal.CHAIN_REMOVED, 1)
+            record(Journal.ADD, 1) { node(4, 3.0, 4.0) }
+        }
+
+        with(project.chains.single()) {
+            assertEquals(1, id)
+            assertArrayEquals(intArrayOf(4), ids)
+            assertArrayEquals(doubleArrayOf(3.0), xs)
+            assertArrayEquals(doubleArrayOf(4.0), ys)
+            assertEquals(0, edges.size)
+            assertTrue(decorators.isEmpty())
+        }
+    }
+
+    @Test
+    fun removedChainIsCreatedAgainWithItsNewColor() {
+        val project = recover {
+            record(Journal.CHAIN_REMOVED, 1)
+            record(Journal.CHAIN, 1) {
+                putInt(0x0000FF00)
+                putInt(style.fontColor)
+                putDouble(style.fontSize)
+                putShort(style.fontWeight.toShort())
+                putByte(1)
+                putInt(style.backgroundColor)
+            }
+            record(Journal.ADD, 1) { node(0, 1.0, 2.0) }
+        }
+
+        with(project.chains.single()) {
+            assertEquals(0x0000FF00, color)
+            assertArrayEquals(intArrayOf(0), ids)
+        }
+    }
+
+    @Test
+    fun removedChainWithoutNodesIsDropped() {
+        assertTrue(recover { record(Journal.CHAIN_REMOVED, 1) }.chains.isEmpty())
+    }
+
+    @Test
+    fun labelDragsAreReplayed() {
+        val project = recover {
+            record(Journal.LABEL, 1) { angle(1, 0, 2); putDouble(12.0); putDouble(-4.0); putDouble(0.25) }
+
+            // a measure journaled after the base, then dragged
+            record(Journal.ADD, 1) { node(3, 10.0, 10.0) }
+            record(Journal.CONNECT, 1) { putInt(1); putInt(3) }
+            record(Journal.MEASURE, 1) { angle(1, 0, 3) }
+            record(Journal.LABEL, 1) { angle(1, 0, 3); putDouble(1.0); putDouble(2.0); putDouble(3.0) }
+        }
+
+        val decorators = project.chains.single().decorators.associateBy { Triple(it.vertex, it.extreme1, it.extreme2) }
+
+        with(decorators.getValue(Triple(1, 0, 2))) {
+            assertEquals(12.0, dragX)
+            assertEquals(-4.0, dragY)
+            assertEquals(0.25, dragAngle)
+        }
+
+        with(decorators.getValue(Triple(1, 0, 3))) {
+            assertEquals(1.0, dragX)
+            assertEquals(2.0, dragY)
+            assertEquals(3.0, dragAngle)
+        }
+    }
+
+    /**
+     * A base with the chain 1: three nodes in a line, connected in order, with a measure on the middle one.
+     */
+    private fun base() = ProjectData(
+        null,
+        listOf(
+            ChainData(
+                1,
+                0xFF000000.toInt(),
+                style,
+                intArrayOf(0, 1, 2),
+                doubleArrayOf(0.0, 10.0, 20.0),
+                doubleArrayOf(0.0, 0.0, 0.0),
+                intArrayOf(0, 1, 1, 2),
+                listOf(DecoratorData(1, 0, 2, .0, .0, .0))
+            )
+        )
+    )
+
+    private fun recover(records: BlockWriter.() -> Unit) = Journal.recover(journal(records))!!
+
+    private fun journal(records: BlockWriter.() -> Unit): File {
+        val file = dir.resolve("session.journal")
+
+        FileChannel.open(file, CREATE, WRITE, TRUNCATE_EXISTING).use { channel ->
+            with(BlockWriter(channel)) {
+                putInt(Journal.MAGIC)
+                putShort(Journal.VERSION)
+                putShort(0)
+                ProjectFile.write(this, base())
+                records()
+                flush()
+            }
+        }
+
+        return file.toFile()
+    }
+
+    private fun BlockWriter.record(type: Byte, chain: Int, fields: BlockWriter.() -> Unit = {}) {
+        putByte(type)
+        putInt(chain)
+        fields()
+    }
+
+    private fun BlockWriter.node(id: Int, x: Double, y: Double) {
+        putInt(id)
+        putDouble(x)
+        putDouble(y)
+    }
+
+    private fun BlockWriter.angle(vertex: Int, extreme1: Int, extreme2: Int) {
+        putInt(vertex)
+        putInt(extreme1)
+        putInt(extreme2)
+    }
+}
@@ -0,0 +1,144 @@
+package org.mth.protractorfx.project
+
+import org.junit.jupiter.api.Assertions.assertArrayEquals
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+import org.junit.jupiter.api.io.TempDir
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.file.Files
+import java.nio.file.Path
+
+class ProjectFileTest {
+
+    @TempDir
+    lateinit var dir: Path
+
+    @Test
+    fun roundTripBuffered() = checkRoundTrip(mapped = false)
+
+    @Test
+    fun roundTripMapped() = checkRoundTrip(mapped = true)
+
+    @Test
+    fun roundTripWithoutImage() {
+        val file = dir.resolve("empty.pfx")
+        ProjectFile.write(file, ProjectData(null, listOf(chain(7, intArrayOf(0)))))
+
+        for (mapped in listOf(false, true)) {
+            val read = ProjectFile.read(file, mapped)
+
+            assertNull(read.image)
+            assertEquals(7, read.chains.single().id)
+        }
+    }
+
+    @Test
+    fun truncatedFileIsRejected() {
+        val file = dir.resolve("project.pfx")
+        ProjectFile.write(file, project())
+
+        val bytes = Files.readAllBytes(file)
+        val truncated = dir.resolve("truncated.pfx")
+
+        for (length in listOf(0, 3, 12, bytes.size / 2, bytes.size - 8, bytes.size - 1)) {
+            Files.write(truncated, bytes.copyOf(length))
+
+            for (mapped in listOf(false, true))
+                assertThrows<IOException>("length $length, mapped $mapped") { ProjectFile.read(truncated, mapped) }
+        }
+    }
+
+    @Test
+    fun nodeIdBeyondTheLimitIsRejected() {
+        val file = dir.resolve("project.pfx")
+        ProjectFile.write(file, ProjectData(null, listOf(chain(0, intArrayOf(0, 1)))))
+
+        // header (12 bytes), no image (4), chain id, color, style (27), node count (4): the first node id follows
+        val bytes = Files.readAllBytes(file)
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).putInt(47, ProjectFile.MAX_NODE_ID)
+        Files.write(file, bytes)
+
+        for (mapped in listOf(false, true))
+            assertThrows<IOException> { ProjectFile.read(file, mapped) }
+
+        val tooLarge = ProjectData(null, listOf(chain(0, intArrayOf(0, ProjectFile.MAX_NODE_ID))))
+        assertThrows<IOException> { ProjectFile.write(dir.resolve("large.pfx"), tooLarge) }
+    }
+
+    private fun checkRoundTrip(mapped: Boolean) {
+        val file = dir.resolve("project.pfx")
+        val project = project()
+
+        ProjectFile.write(file, project)
+        val read = ProjectFile.read(file, mapped)
+
+        with(read.image!!) {
+            assertEquals(project.image!!.path, path)
+            assertArrayEquals(project.image!!.region, region)
+            assertEquals(project.image!!.subsampling, subsampling)
+            assertArrayEquals(project.image!!.viewport, viewport)
+        }
+
+        assertEquals(project.chains.size, read.chains.size)
+
+        project.chains.zip(read.chains).forEach { (expected, actual) ->
+            assertEquals(expected.id, actual.id)
+            assertEquals(expected.color, actual.color)
+
+            assertEquals(expected.style.fontColor, actual.style.fontColor)
+            assertEquals(expected.style.fontSize, actual.style.fontSize)
+            assertEquals(expected.style.fontWeight, actual.style.fontWeight)
+            assertEquals(expected.style.backgroundVisible, actual.style.backgroundVisible)
+            assertEquals(expected.style.backgroundColor, actual.style.backgroundColor)
+
+            assertArrayEquals(expected.ids, actual.ids)
+            assertArrayEquals(expected.xs, actual.xs)
+            assertArrayEquals(expected.ys, actual.ys)
+            assertArrayEquals(expected.edges, actual.edges)
+
+            assertEquals(expected.decorators.size, actual.decorators.size)
+            expected.decorators.zip(actual.decorators).forEach { (d1, d2) ->
+                assertEquals(d1.vertex, d2.vertex)
+                assertEquals(d1.extreme1, d2.extreme1)
+                assertEquals(d1.extreme2, d2.extreme2)
+                assertEquals(d1.dragX, d2.dragX)
+                assertEquals(d1.dragY, d2.dragY)
+                assertEquals(d1.dragAngle, d2.dragAngle)
+            }
+        }
+    }
+
+    private fun project(): ProjectData {
+        // a long chain, larger than the read buffer, and a short one with sparse ids
+        val long = chain(3, IntArray(20_000) { it })
+        val sparse = chain(8, intArrayOf(0, 5, 40, 1100))
+
+        return ProjectData(
+            ImageReference("images/sample è.png", intArrayOf(10, 20, 300, 400), 2, doubleArrayOf(1.5, 2.5, 3.5, 4.5)),
+            listOf(long, sparse)
+        )
+    }
+
+    private fun chain(id: Int, ids: IntArray): ChainData {
+        val edges = IntArray(2 * (ids.size - 1)) { ids[(it + 1) / 2] }
+        val decorators = if (ids.size >= 3)
+            listOf(DecoratorData(ids[1], ids[0], ids[2], 12.5, -3.0, 0.75))
+        else
+            emptyList()
+
+        return ChainData(
+            id,
+            0x11223344,
+            StyleData(0x55667788, 13.5, 700, true, 0x10203040),
+            ids,
+            DoubleArray(ids.size) { it * 1.5 },
+            DoubleArray(ids.size) { -it * 0.25 },
+            edges,
+            decorators
+        )
+    }
+}